@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.services.BeerOrderAllocationService;
+import guru.springframework.brewery.services.InventoryLedger;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full allocation sweep over a seeded backlog of NEW orders.
+ *
+ * Every invocation starts from the same backlog and inventory, the reset is not measured. Besides the time per
+ * sweep the benchmark reports the orders swept per second, and with the default {@code -prof gc} the bytes
+ * allocated per sweep ({@code gc.alloc.rate.norm}). The write amplification is reported as the BeerInventory
+ * inserts, updates and deletes, and the JDBC statements, per allocated order line.
+ *
+ * Alternative allocation engines are added as {@link Engine} constants carrying the properties which select them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AllocationBenchmark {
+
+    public enum Engine {
+        ROWS,
+        PARALLEL("sfg.brewery.allocation.parallelism=4"),
+        LEDGER("sfg.brewery.allocation.ledger.enabled=true");
+
+        private final String[] properties;
+
+        Engine(String... properties) {
+            this.properties = properties;
+        }
+    }
+
+    @Param({"1000", "10000"})
+    private int orders;
+
+    @Param({"3"})
+    private int linesPerOrder;
+
+    @Param({"25"})
+    private int beers;
+
+    @Param({"4"})
+    private int inventoryRowsPerBeer;
+
+    @Param({"ROWS", "PARALLEL", "LEDGER"})
+    private Engine engine;
+
+    private BreweryBenchmarkSupport support;
+    private BeerOrderAllocationService beerOrderAllocationService;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class SweptOrders {
+        public long orders;
+    }
+
+    /**
+     * Writes per allocated line over the iteration, the ledger writes are flushed after every sweep to be counted.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class WriteAmplification {
+        public double inventoryWritesPerLine;
+        public double statementsPerLine;
+
+        // set by the benchmark, JMH 1.21 cannot inject the benchmark state into an invocation hook
+        private BreweryBenchmarkSupport support;
+        private long inventoryWrites;
+        private long statements;
+        private long allocatedLines;
+
+        @Setup(Level.Iteration)
+        public void startIteration() {
+            inventoryWrites = 0;
+            statements = 0;
+            allocatedLines = 0;
+        }
+
+        @TearDown(Level.Invocation)
+        public void countWrites() {
+            InventoryLedger inventoryLedger = support.getBeanIfAvailable(InventoryLedger.class);
+
+            if (inventoryLedger != null) {
+                inventoryLedger.flush();
+            }
+
+            Statistics statistics = support.getStatistics();
+            EntityStatistics inventoryStatistics = statistics.getEntityStatistics(BeerInventory.class.getName());
+
+            inventoryWrites += inventoryStatistics.getInsertCount() + inventoryStatistics.getUpdateCount()
+                    + inventoryStatistics.getDeleteCount();
+            statements += statistics.getPrepareStatementCount();
+            allocatedLines += support.countAllocatedLines();
+
+            inventoryWritesPerLine = (double) inventoryWrites / Math.max(1, allocatedLines);
+            statementsPerLine = (double) statements / Math.max(1, allocatedLines);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        support = new BreweryBenchmarkSupport(engine.properties);
+        support.seed(orders, linesPerOrder, beers, inventoryRowsPerBeer);
+        beerOrderAllocationService = support.getBean(BeerOrderAllocationService.class);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetBacklog() {
+        support.reset();
+        support.getStatistics().clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        support.close();
+    }
+
+    @Benchmark
+    public void runBeerOrderAllocation(SweptOrders sweptOrders, WriteAmplification writeAmplification) {
+        writeAmplification.support = support;
+        beerOrderAllocationService.runBeerOrderAllocation();
+        sweptOrders.orders += orders;
+    }
+}
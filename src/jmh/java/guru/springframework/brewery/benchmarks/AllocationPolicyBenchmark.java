@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.services.BeerOrderAllocationService;
+import guru.springframework.brewery.services.StandardAllocationPolicy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time-to-READY of the allocation policies on a backlog competing for scarce stock.
+ *
+ * Every invocation simulates {@link #ROUNDS} rounds of {@link #ROUND_MILLIS}. In each round two bulk customers
+ * place a large order, eighteen small customers place a small order now and then, a little less inventory arrives
+ * than was ordered and the sweep runs. After that {@link #DRAIN_ROUNDS} rounds only add inventory. The p50 and p99
+ * time-to-READY are reported in rounds, orders never READY count with the rounds they waited and are reported as
+ * unserved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+// an iteration ends after its first simulation
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class AllocationPolicyBenchmark {
+
+    private static final int ROUNDS = 60;
+    private static final int DRAIN_ROUNDS = 20;
+    private static final long ROUND_MILLIS = 100;
+    private static final int BULK_CUSTOMERS = 2;
+    private static final int SMALL_CUSTOMERS = 18;
+    private static final int INVENTORY_PER_ROUND = 105;
+
+    @Param({"OLDEST_FIRST", "SMALLEST_FIRST", "CUSTOMER_ROUND_ROBIN"})
+    private StandardAllocationPolicy policy;
+
+    /**
+     * Starvation protection in milliseconds, 0 disables it
+     */
+    @Param({"0", "2000"})
+    private long maxWait;
+
+    private BreweryBenchmarkSupport support;
+    private BeerOrderAllocationService beerOrderAllocationService;
+    private TransactionTemplate transactionTemplate;
+    private Beer beer;
+    private List<Customer> customers;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class TimeToReady {
+        public long p50Rounds;
+        public long p99Rounds;
+        public long unservedOrders;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            p50Rounds = 0;
+            p99Rounds = 0;
+            unservedOrders = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        support = new BreweryBenchmarkSupport(
+                "sfg.brewery.allocation.policy=" + policy,
+                "sfg.brewery.allocation.max-wait=" + maxWait,
+                "sfg.brewery.allocation.chunk-size=100000");
+        beerOrderAllocationService = support.getBean(BeerOrderAllocationService.class);
+        transactionTemplate = support.getBean(TransactionTemplate.class);
+
+        beer = support.getBean(BeerRepository.class).save(Beer.builder()
+                .beerName("Scarce Beer")
+                .upc(990000000000L)
+                .build());
+
+        customers = new ArrayList<>();
+        for (int i = 0; i < BULK_CUSTOMERS + SMALL_CUSTOMERS; i++) {
+            customers.add(support.getBean(CustomerRepository.class).save(Customer.builder()
+                    .customerName((i < BULK_CUSTOMERS ? "Bulk Customer " : "Small Customer ") + i)
+                    .apiKey(UUID.randomUUID())
+                    .build()));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearBacklog() {
+        transactionTemplate.execute(status -> {
+            EntityManager entityManager = support.getBean(EntityManager.class);
+
+            entityManager.createQuery("delete from BeerOrderLine l where l.beer = :beer")
+                    .setParameter("beer", beer)
+                    .executeUpdate();
+            entityManager.createQuery("delete from BeerOrder o where o.customer in :customers")
+                    .setParameter("customers", customers)
+                    .executeUpdate();
+            entityManager.createQuery("delete from BeerInventory i where i.beer = :beer")
+                    .setParameter("beer", beer)
+                    .executeUpdate();
+            return null;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        support.close();
+    }
+
+    @Benchmark
+    public void simulateBacklog(TimeToReady timeToReady) throws InterruptedException {
+        Random random = new Random(7);
+        Map<UUID, Integer> placedRound = new HashMap<>();
+        List<Long> roundsToReady = new ArrayList<>();
+
+        for (int round = 0; round < ROUNDS + DRAIN_ROUNDS; round++) {
+            long roundEnd = System.currentTimeMillis() + ROUND_MILLIS;
+
+            if (round < ROUNDS) {
+                for (BeerOrder beerOrder : placeOrders(random)) {
+                    placedRound.put(beerOrder.getId(), round);
+                }
+            }
+
+            support.getBean(BeerInventoryRepository.class).save(BeerInventory.builder()
+                    .beer(beer)
+                    .quantityOnHand(INVENTORY_PER_ROUND)
+                    .build());
+
+            beerOrderAllocationService.runBeerOrderAllocation();
+
+            int currentRound = round;
+            support.getBean(BeerOrderRepository.class).findAllById(new ArrayList<>(placedRound.keySet())).stream()
+                    .filter(beerOrder -> beerOrder.getOrderStatus() == OrderStatusEnum.READY)
+                    .forEach(beerOrder ->
+                            roundsToReady.add((long) currentRound - placedRound.remove(beerOrder.getId())));
+
+            Thread.sleep(Math.max(0, roundEnd - System.currentTimeMillis()));
+        }
+
+        // orders still waiting count with what they waited so far
+        placedRound.values().forEach(placed -> roundsToReady.add((long) ROUNDS + DRAIN_ROUNDS - placed));
+        Collections.sort(roundsToReady);
+
+        timeToReady.p50Rounds = percentile(roundsToReady, 0.5);
+        timeToReady.p99Rounds = percentile(roundsToReady, 0.99);
+        timeToReady.unservedOrders = placedRound.size();
+    }
+
+    private List<BeerOrder> placeOrders(Random random) {
+        List<BeerOrder> beerOrders = new ArrayList<>();
+
+        for (int i = 0; i < customers.size(); i++) {
+            if (i < BULK_CUSTOMERS) {
+                beerOrders.add(createOrder(customers.get(i), 30 + random.nextInt(31)));
+            } else if (random.nextInt(10) < 4) {
+                beerOrders.add(createOrder(customers.get(i), 1 + random.nextInt(6)));
+            }
+        }
+
+        return support.getBean(BeerOrderRepository.class).saveAll(beerOrders);
+    }
+
+    private BeerOrder createOrder(Customer customer, int orderQuantity) {
+        BeerOrder beerOrder = BeerOrder.builder()
+                .customer(customer)
+                .orderStatus(OrderStatusEnum.NEW)
+                .build();
+        beerOrder.setBeerOrderLines(Set.of(BeerOrderLine.builder()
+                .beerOrder(beerOrder)
+                .beer(beer)
+                .orderQuantity(orderQuantity)
+                .quantityAllocated(0)
+                .build()));
+        return beerOrder;
+    }
+
+    private static long percentile(List<Long> sortedValues, double quantile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        return sortedValues.get((int) Math.ceil(quantile * sortedValues.size()) - 1);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.TsbbSfgBreweryApplication;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.services.InventoryLedger;
+import guru.springframework.brewery.web.model.BeerStyleEnum;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Starts the application against a private in memory H2 database and seeds it with generated orders and inventory.
+ *
+ * Every order line asks for 1 to 10 units, the inventory of a beer covers about three quarters of what is ordered
+ * of it, so a run allocates fully, partially and not at all, as it would with a real backlog.
+ */
+public class BreweryBenchmarkSupport {
+
+    private static final long UPC_BASE = 900000000000L;
+    private static final int SEED_CHUNK_SIZE = 1000;
+
+    private final ConfigurableApplicationContext context;
+    private final TransactionTemplate transactionTemplate;
+
+    private final List<UUID> beerIds = new ArrayList<>();
+    private final List<Integer> inventoryRowQuantities = new ArrayList<>();
+    private UUID customerId;
+    private int inventoryRowsPerBeer;
+
+    /**
+     * @param properties application properties on top of the benchmark defaults, for example the engine under test
+     */
+    public BreweryBenchmarkSupport(String... properties) {
+        // devtools would restart the application in another class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        Stream<String> defaults = Stream.of(
+                "spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE",
+                // the benchmark decides when to allocate
+                "sfg.brewery.allocation.event-driven=false",
+                "sfg.brewery.allocation.sweep-interval=" + Integer.MAX_VALUE,
+                "logging.level.root=warn",
+                // seeded orders have no callback url
+                "logging.level.guru.springframework.brewery.events=off",
+                // counts the statements and entity writes, see getStatistics()
+                "spring.jpa.properties.hibernate.generate_statistics=true",
+                "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=off");
+
+        // a property given replaces the default of the same name
+        Map<String, String> arguments = new LinkedHashMap<>();
+        Stream.concat(defaults, Arrays.stream(properties))
+                .forEach(property -> arguments.put(property.substring(0, property.indexOf('=')), "--" + property));
+
+        // passed as command line arguments, which take precedence over application.properties
+        context = new SpringApplicationBuilder(TsbbSfgBreweryApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(arguments.values().toArray(new String[0]));
+
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public <T> T getBeanIfAvailable(Class<T> type) {
+        return context.getBeanProvider(type).getIfAvailable();
+    }
+
+    /**
+     * Seeds the beers, their inventory and NEW orders of a single customer
+     */
+    public void seed(int orders, int linesPerOrder, int beers, int inventoryRowsPerBeer) {
+        this.inventoryRowsPerBeer = inventoryRowsPerBeer;
+
+        Random random = new Random(42);
+        int[] orderedPerBeer = new int[beers];
+
+        transactionTemplate.execute(status -> {
+            BeerRepository beerRepository = context.getBean(BeerRepository.class);
+            List<Beer> seededBeers = new ArrayList<>();
+
+            for (int i = 0; i < beers; i++) {
+                seededBeers.add(beerRepository.save(Beer.builder()
+                        .beerName("Benchmark Beer " + i)
+                        .beerStyle(BeerStyleEnum.values()[i % BeerStyleEnum.values().length])
+                        .upc(UPC_BASE + i)
+                        .build()));
+            }
+            seededBeers.forEach(beer -> beerIds.add(beer.getId()));
+
+            Customer customer = context.getBean(CustomerRepository.class).save(Customer.builder()
+                    .customerName("Benchmark Customer")
+                    .apiKey(UUID.randomUUID())
+                    .build());
+            customerId = customer.getId();
+
+            List<BeerOrder> beerOrders = new ArrayList<>();
+
+            for (int i = 0; i < orders; i++) {
+                BeerOrder beerOrder = BeerOrder.builder()
+                        .customer(customer)
+                        .customerRef("benchmark-" + i)
+                        // as placed orders have, H2 checks the uniqueness of null keys one by one
+                        .idempotencyKey("benchmark-" + i)
+                        .orderStatus(OrderStatusEnum.NEW)
+                        .build();
+                Set<BeerOrderLine> beerOrderLines = new HashSet<>();
+
+                for (int j = 0; j < linesPerOrder; j++) {
+                    int beer = random.nextInt(beers);
+                    int orderQuantity = 1 + random.nextInt(10);
+
+                    orderedPerBeer[beer] += orderQuantity;
+                    beerOrderLines.add(BeerOrderLine.builder()
+                            .beerOrder(beerOrder)
+                            .beer(seededBeers.get(beer))
+                            .orderQuantity(orderQuantity)
+                            .quantityAllocated(0)
+                            .build());
+                }
+                beerOrder.setBeerOrderLines(beerOrderLines);
+                beerOrders.add(beerOrder);
+
+                if (beerOrders.size() == SEED_CHUNK_SIZE) {
+                    saveAndDetach(beerOrders);
+                }
+            }
+
+            saveAndDetach(beerOrders);
+            return null;
+        });
+
+        for (int ordered : orderedPerBeer) {
+            inventoryRowQuantities.add(Math.max(1, ordered * 3 / 4 / inventoryRowsPerBeer));
+        }
+
+        reset();
+    }
+
+    /**
+     * Saves the orders and clears them from the persistence context, which would otherwise grow with every order seeded
+     */
+    private void saveAndDetach(List<BeerOrder> beerOrders) {
+        EntityManager entityManager = context.getBean(EntityManager.class);
+
+        context.getBean(BeerOrderRepository.class).saveAll(beerOrders);
+        entityManager.flush();
+        entityManager.clear();
+        beerOrders.clear();
+    }
+
+    /**
+     * Puts every order back to NEW with nothing allocated and recreates the seeded inventory rows
+     */
+    public void reset() {
+        InventoryLedger inventoryLedger = getBeanIfAvailable(InventoryLedger.class);
+
+        if (inventoryLedger != null) {
+            // write back what the previous run took, so the ledger does not subtract it again after the reset
+            inventoryLedger.flush();
+        }
+
+        transactionTemplate.execute(status -> {
+            EntityManager entityManager = context.getBean(EntityManager.class);
+
+            // only the rows a run changed, H2 takes long to update every row of a large table
+            entityManager.createQuery("update BeerOrderLine l set l.quantityAllocated = 0 where l.quantityAllocated <> 0")
+                    .executeUpdate();
+            entityManager.createQuery("update BeerOrder o set o.orderStatus = :orderStatus "
+                    + "where o.orderStatus <> :orderStatus")
+                    .setParameter("orderStatus", OrderStatusEnum.NEW)
+                    .executeUpdate();
+            entityManager.createQuery("delete from BeerInventory i where i.beer.id in :beerIds")
+                    .setParameter("beerIds", beerIds)
+                    .executeUpdate();
+
+            List<BeerInventory> beerInventoryList = new ArrayList<>();
+
+            for (int i = 0; i < beerIds.size(); i++) {
+                Beer beer = entityManager.getReference(Beer.class, beerIds.get(i));
+
+                for (int j = 0; j < inventoryRowsPerBeer; j++) {
+                    beerInventoryList.add(BeerInventory.builder()
+                            .beer(beer)
+                            .quantityOnHand(inventoryRowQuantities.get(i))
+                            .build());
+                }
+            }
+
+            context.getBean(BeerInventoryRepository.class).saveAll(beerInventoryList);
+            return null;
+        });
+
+        if (inventoryLedger != null) {
+            inventoryLedger.reconcile(null);
+        }
+    }
+
+    /**
+     * Number of order lines which got at least part of their quantity allocated
+     */
+    public long countAllocatedLines() {
+        return context.getBean(EntityManager.class)
+                .createQuery("select count(l) from BeerOrderLine l where l.quantityAllocated > 0", Long.class)
+                .getSingleResult();
+    }
+
+    /**
+     * Hibernate statistics of the application, cleared by the caller before the measured work
+     */
+    public Statistics getStatistics() {
+        return context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+    }
+
+    public List<UUID> getBeerIds() {
+        return beerIds.stream().collect(Collectors.toList());
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public void close() {
+        context.close();
+    }
+}
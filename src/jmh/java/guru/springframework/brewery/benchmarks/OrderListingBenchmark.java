@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.services.BeerOrderService;
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
+import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing a page of the orders of a customer, with their lines, as the customer's order history grows.
+ *
+ * The time per page should not depend on the number of orders of the customer, except for the count of them which
+ * the page reports. The page is taken at the given depth into the history, either by its number or by the cursor
+ * handed out with the page before it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OrderListingBenchmark {
+
+    private static final int WALK_STEP = 1000;
+
+    @Param({"1000", "100000"})
+    private int orders;
+
+    @Param({"25"})
+    private int pageSize;
+
+    // fraction of the orders before the page
+    @Param({"0", "0.99"})
+    private double depth;
+
+    private BreweryBenchmarkSupport support;
+    private BeerOrderService beerOrderService;
+    private UUID customerId;
+    private int pageNumber;
+    private String cursor;
+
+    @Setup
+    public void startApplication() {
+        support = new BreweryBenchmarkSupport();
+        support.seed(orders, 3, 25, 1);
+
+        beerOrderService = support.getBean(BeerOrderService.class);
+        customerId = support.getCustomerId();
+        pageNumber = (int) (orders * depth / pageSize);
+
+        // walks up to the page in large steps, the cursor is the same as the one of the page before it
+        cursor = "";
+        for (int remaining = pageNumber * pageSize; remaining > 0; remaining -= WALK_STEP) {
+            cursor = beerOrderService.listOrders(customerId, cursor, Math.min(remaining, WALK_STEP)).getNextCursor();
+        }
+    }
+
+    @TearDown
+    public void stopApplication() {
+        support.close();
+    }
+
+    @Benchmark
+    public BeerOrderPagedList listOrders() {
+        return beerOrderService.listOrders(customerId, PageRequest.of(pageNumber, pageSize));
+    }
+
+    @Benchmark
+    public BeerOrderCursorPage listOrdersAfterCursor() {
+        return beerOrderService.listOrders(customerId, cursor, pageSize);
+    }
+}
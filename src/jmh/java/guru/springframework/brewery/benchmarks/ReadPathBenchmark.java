@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.services.BeerOrderService;
+import guru.springframework.brewery.services.BeerService;
+import guru.springframework.brewery.web.model.BeerDto;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import guru.springframework.brewery.web.model.BeerPagedList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read endpoints below the web layer: a single beer, a page of beers, a single order and a page of
+ * orders with their lines, next to the version lookups that answer a conditional read of an unchanged beer or order.
+ *
+ * Run with {@code -prof gc}, the bytes allocated per read (gc.alloc.rate.norm) show the cost of what is built to
+ * answer it. Beers and pages of beers come from the catalog cache once read, only the version lookup of a beer not
+ * read before goes to the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    private static final int ORDERS = 1000;
+    private static final int PAGE_SIZE = 25;
+
+    private BreweryBenchmarkSupport support;
+    private BeerService beerService;
+    private BeerOrderService beerOrderService;
+    private List<UUID> beerIds;
+    private UUID customerId;
+    private UUID beerOrderId;
+    private int read;
+
+    @Setup
+    public void startApplication() {
+        support = new BreweryBenchmarkSupport();
+        support.seed(ORDERS, 3, 25, 1);
+
+        beerService = support.getBean(BeerService.class);
+        beerOrderService = support.getBean(BeerOrderService.class);
+        beerIds = support.getBeerIds();
+        customerId = support.getCustomerId();
+        beerOrderId = support.getBean(BeerOrderRepository.class)
+                .findIdsByCustomerId(customerId, PageRequest.of(0, 1))
+                .getContent()
+                .get(0);
+    }
+
+    @TearDown
+    public void stopApplication() {
+        support.close();
+    }
+
+    @Benchmark
+    public BeerDto findBeerById() {
+        // another beer each time, after the first round all of them are answered from the catalog cache
+        return beerService.findBeerById(beerIds.get(read++ % beerIds.size()));
+    }
+
+    @Benchmark
+    public Optional<Long> findBeerVersion() {
+        return beerService.findBeerVersion(beerIds.get(read++ % beerIds.size()));
+    }
+
+    @Benchmark
+    public BeerPagedList listBeers() {
+        return beerService.listBeers(null, null, PageRequest.of(read++ % 2, PAGE_SIZE / 2));
+    }
+
+    @Benchmark
+    public BeerOrderDto getOrderById() {
+        return beerOrderService.getOrderById(customerId, beerOrderId);
+    }
+
+    @Benchmark
+    public Optional<Long> findOrderRevision() {
+        return beerOrderService.findOrderRevision(customerId, beerOrderId);
+    }
+
+    @Benchmark
+    public BeerOrderPagedList listOrders() {
+        return beerOrderService.listOrders(customerId, PageRequest.of(read++ % (ORDERS / PAGE_SIZE), PAGE_SIZE));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.domain.UUIDGeneration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link UUIDGeneration} strategies by inserting orders with their lines into tables growing to
+ * {@code orders} times {@code 1 + linesPerOrder} rows, 10 million by default, in an H2 database on disk.
+ *
+ * The rows are inserted with plain JDBC batches of {@value #ORDERS_PER_COMMIT} orders per commit, the ids generated
+ * by the strategy under test, so the time is spent in the tables and their indexes rather than in Hibernate. The
+ * score is the time to insert all rows. Printed after the run are the rows per second over every tenth of the rows,
+ * which shows how the inserts slow down as the indexes outgrow the cache, and the size of the database and the
+ * number of file writes, which show how many more index pages random ids leave half filled and write again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class UUIDGenerationBenchmark {
+
+    private static final int ORDERS_PER_COMMIT = 1000;
+
+    @Param({"2500000"})
+    private int orders;
+
+    @Param({"3"})
+    private int linesPerOrder;
+
+    @Param({"RANDOM", "TIME_ORDERED"})
+    private UUIDGeneration generation;
+
+    private Path directory;
+    private BreweryBenchmarkSupport support;
+    private List<UUID> beerIds;
+    private UUID customerId;
+    private long[] tenthsNanos;
+
+    @Setup(Level.Iteration)
+    public void startApplication() throws IOException {
+        directory = Files.createTempDirectory(Paths.get("target"), "uuid-generation-benchmark");
+        support = new BreweryBenchmarkSupport(
+                "spring.datasource.url=jdbc:h2:file:" + directory.toAbsolutePath() + "/brewery;DB_CLOSE_ON_EXIT=FALSE",
+                "sfg.brewery.uuid-generation=" + generation);
+        support.seed(0, linesPerOrder, 25, 1);
+
+        beerIds = support.getBeerIds();
+        customerId = support.getCustomerId();
+        tenthsNanos = new long[10];
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopApplication() throws IOException {
+        JdbcTemplate jdbcTemplate = support.getBean(JdbcTemplate.class);
+        long rows = (long) orders * (1 + linesPerOrder);
+        long pages = jdbcTemplate.queryForObject("select value from information_schema.settings "
+                + "where name = 'info.PAGE_COUNT'", Long.class);
+        long pageSize = jdbcTemplate.queryForObject("select value from information_schema.settings "
+                + "where name = 'info.PAGE_SIZE'", Long.class);
+        long fileWrites = jdbcTemplate.queryForObject("select value from information_schema.settings "
+                + "where name = 'info.FILE_WRITE'", Long.class);
+
+        System.out.printf("%n%s rows per second by tenth of the rows:", generation);
+
+        for (int i = 0; i < tenthsNanos.length; i++) {
+            long nanos = tenthsNanos[i] - ((i > 0) ? tenthsNanos[i - 1] : 0);
+            System.out.printf(" %.0f", rows / 10.0 / nanos * TimeUnit.SECONDS.toNanos(1));
+        }
+        System.out.printf("%n%s database bytes per row: %.1f, file writes: %d%n", generation,
+                (double) pages * pageSize / rows, fileWrites);
+
+        support.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void insertOrders() throws SQLException {
+        Random random = new Random(42);
+        long started = System.nanoTime();
+        int tenth = 0;
+
+        try (Connection connection = support.getBean(DataSource.class).getConnection();
+             PreparedStatement insertOrder = connection.prepareStatement("insert into beer_order "
+                     + "(id, version, created_date, last_modified_date, customer_id, order_status) "
+                     + "values (?, 0, ?, ?, ?, ?)");
+             PreparedStatement insertLine = connection.prepareStatement("insert into beer_order_line "
+                     + "(id, version, created_date, last_modified_date, beer_order_id, beer_id, order_quantity, "
+                     + "quantity_allocated) values (?, 0, ?, ?, ?, ?, ?, 0)")) {
+            connection.setAutoCommit(false);
+
+            for (int i = 1; i <= orders; i++) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                UUID orderId = generation.generateUUID();
+
+                insertOrder.setObject(1, orderId);
+                insertOrder.setTimestamp(2, now);
+                insertOrder.setTimestamp(3, now);
+                insertOrder.setObject(4, customerId);
+                insertOrder.setInt(5, OrderStatusEnum.NEW.ordinal());
+                insertOrder.addBatch();
+
+                for (int j = 0; j < linesPerOrder; j++) {
+                    insertLine.setObject(1, generation.generateUUID());
+                    insertLine.setTimestamp(2, now);
+                    insertLine.setTimestamp(3, now);
+                    insertLine.setObject(4, orderId);
+                    insertLine.setObject(5, beerIds.get(random.nextInt(beerIds.size())));
+                    insertLine.setInt(6, 1 + random.nextInt(10));
+                    insertLine.addBatch();
+                }
+
+                if (i % ORDERS_PER_COMMIT == 0 || i == orders) {
+                    insertOrder.executeBatch();
+                    insertLine.executeBatch();
+                    connection.commit();
+                }
+
+                while (tenth < 10 && i >= (long) orders * (tenth + 1) / 10) {
+                    tenthsNanos[tenth++] = System.nanoTime() - started;
+                }
+            }
+        }
+    }
+}
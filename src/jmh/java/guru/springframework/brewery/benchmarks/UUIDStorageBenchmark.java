@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.benchmarks;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.domain.UUIDStorage;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link UUIDStorage} modes on a seeded backlog of orders.
+ *
+ * {@code joinOrderLines} counts the lines of the customer's orders joined to their orders, customer and beers,
+ * every join a lookup of a UUID key. {@code findOrdersById} loads orders by id with their lines and beers.
+ * {@code insertOrders} inserts orders of 3 lines in transactions of {@value #INSERTED_ORDERS} orders, into tables
+ * which grow over the run, and reports them as orders per second.
+ *
+ * The size of the indexes is printed after seeding as the index key bytes per order line: the bytes of every column
+ * of every index over the order, line, beer, customer and inventory tables, divided by the order lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UUIDStorageBenchmark {
+
+    private static final int INSERTED_ORDERS = 100;
+    private static final int FOUND_ORDERS = 100;
+    private static final String[] INDEXED_TABLES = {"BEER_ORDER", "BEER_ORDER_LINE", "BEER", "CUSTOMER",
+            "BEER_INVENTORY"};
+
+    @Param({"10000"})
+    private int orders;
+
+    @Param({"CHAR", "BINARY"})
+    private UUIDStorage storage;
+
+    private BreweryBenchmarkSupport support;
+    private TransactionTemplate transactionTemplate;
+    private EntityManager entityManager;
+    private List<UUID> beerIds;
+    private List<UUID> orderIds;
+    private UUID customerId;
+    private final Random random = new Random(42);
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class InsertedOrders {
+        public long orders;
+    }
+
+    @Setup
+    public void startApplication() {
+        support = new BreweryBenchmarkSupport("sfg.brewery.uuid-storage=" + storage);
+        support.seed(orders, 3, 25, 1);
+
+        transactionTemplate = support.getBean(TransactionTemplate.class);
+        entityManager = support.getBean(EntityManager.class);
+        beerIds = support.getBeerIds();
+        orderIds = entityManager.createQuery("select o.id from BeerOrder o", UUID.class).getResultList();
+        customerId = support.getCustomerId();
+
+        long orderLines = entityManager.createQuery("select count(l) from BeerOrderLine l", Long.class)
+                .getSingleResult();
+
+        System.out.printf("%nIndex key bytes per order line: %.1f%n", (double) countIndexKeyBytes() / orderLines);
+    }
+
+    @TearDown
+    public void stopApplication() {
+        support.close();
+    }
+
+    @Benchmark
+    public long joinOrderLines() {
+        // every line has a quantity of at least 1, the changing parameter keeps H2 from answering from its last result
+        return entityManager.createQuery("select count(l) from BeerOrderLine l join l.beerOrder o "
+                + "join o.customer c join l.beer b where c.id = :customerId and l.orderQuantity > :orderQuantity",
+                Long.class)
+                .setParameter("customerId", customerId)
+                .setParameter("orderQuantity", -random.nextInt(100))
+                .getSingleResult();
+    }
+
+    @Benchmark
+    public List<BeerOrder> findOrdersById() {
+        List<UUID> ids = new ArrayList<>();
+
+        for (int i = 0; i < FOUND_ORDERS; i++) {
+            ids.add(orderIds.get(random.nextInt(orderIds.size())));
+        }
+
+        return transactionTemplate.execute(status -> entityManager.createQuery("select distinct o from BeerOrder o "
+                + "join fetch o.beerOrderLines l join fetch l.beer where o.id in :ids", BeerOrder.class)
+                .setParameter("ids", ids)
+                .getResultList());
+    }
+
+    @Benchmark
+    public void insertOrders(InsertedOrders insertedOrders) {
+        transactionTemplate.execute(status -> {
+            Customer customer = entityManager.getReference(Customer.class, customerId);
+            List<BeerOrder> beerOrders = new ArrayList<>();
+
+            for (int i = 0; i < INSERTED_ORDERS; i++) {
+                BeerOrder beerOrder = BeerOrder.builder()
+                        .customer(customer)
+                        .orderStatus(OrderStatusEnum.NEW)
+                        .build();
+                Set<BeerOrderLine> beerOrderLines = new HashSet<>();
+
+                for (int j = 0; j < 3; j++) {
+                    beerOrderLines.add(BeerOrderLine.builder()
+                            .beerOrder(beerOrder)
+                            .beer(entityManager.getReference(Beer.class, beerIds.get(random.nextInt(beerIds.size()))))
+                            .orderQuantity(1)
+                            .quantityAllocated(0)
+                            .build());
+                }
+                beerOrder.setBeerOrderLines(beerOrderLines);
+                beerOrders.add(beerOrder);
+            }
+
+            support.getBean(BeerOrderRepository.class).saveAll(beerOrders);
+            return null;
+        });
+        insertedOrders.orders += INSERTED_ORDERS;
+    }
+
+    private long countIndexKeyBytes() {
+        JdbcTemplate jdbcTemplate = support.getBean(JdbcTemplate.class);
+        long keyBytes = 0;
+
+        for (String table : INDEXED_TABLES) {
+            List<Map<String, Object>> indexColumns = jdbcTemplate.queryForList("select column_name "
+                    + "from information_schema.indexes where table_name = ?", table);
+
+            for (Map<String, Object> indexColumn : indexColumns) {
+                Long columnBytes = jdbcTemplate.queryForObject("select sum(length(" + indexColumn.get("COLUMN_NAME")
+                        + ")) from " + table, Long.class);
+
+                keyBytes += (columnBytes != null) ? columnBytes : 0;
+            }
+        }
+        return keyBytes;
+    }
+}
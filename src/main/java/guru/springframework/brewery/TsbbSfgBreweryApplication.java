@@ -3,9 +3,7 @@ package guru.springframework.brewery;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.annotation.EnableScheduling;
 
-@EnableScheduling
 @EnableAsync
 @SpringBootApplication
 public class TsbbSfgBreweryApplication {
@@ -21,6 +21,7 @@ import guru.springframework.brewery.web.model.BeerStyleEnum;
 import guru.springframework.brewery.repositories.*;
 import guru.springframework.brewery.repositories.BreweryRepository;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import java.util.UUID;
  * Created by jt on 2019-01-26.
  */
 @Component
+@Profile("!simulation & !uuid-migration")
 public class DefaultBreweryLoader implements CommandLineRunner {
 
     private final BreweryRepository breweryRepository;
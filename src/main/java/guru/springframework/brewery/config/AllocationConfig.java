@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.config;
+
+import guru.springframework.brewery.services.AllocationPolicy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Clock;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class AllocationConfig {
+
+    /**
+     * The inventory ledger only knows about the stock taken by this instance, another instance allocating against the
+     * same database would take the same stock again
+     */
+    public AllocationConfig(AllocationProperties allocationProperties) {
+        if (allocationProperties.getLedger().isEnabled() && allocationProperties.isMultiNode()) {
+            throw new IllegalStateException("sfg.brewery.allocation.ledger.enabled cannot be combined with "
+                    + "sfg.brewery.allocation.multi-node, the ledger only knows about the stock taken by this instance");
+        }
+    }
+
+    @Bean
+    ThreadPoolTaskExecutor allocationTaskExecutor(AllocationProperties allocationProperties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, allocationProperties.getParallelism()));
+        executor.setMaxPoolSize(Math.max(1, allocationProperties.getParallelism()));
+        executor.setThreadNamePrefix("allocation-");
+        return executor;
+    }
+
+    /**
+     * Runs the allocation event listeners on a bounded pool, an event which does not fit the queue is dropped and its
+     * orders are allocated by the next sweep
+     */
+    @Bean
+    ThreadPoolTaskExecutor allocationEventExecutor(AllocationProperties allocationProperties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.max(1, allocationProperties.getEventThreads()));
+        executor.setMaxPoolSize(Math.max(1, allocationProperties.getEventThreads()));
+        executor.setQueueCapacity(Math.max(0, allocationProperties.getEventQueueCapacity()));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        executor.setThreadNamePrefix("allocation-event-");
+        return executor;
+    }
+
+    /**
+     * Time of the allocation leases, the max wait and the allocation metrics, replaced by the simulation
+     */
+    @Bean
+    Clock clock() {
+        return Clock.systemUTC();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    AllocationPolicy allocationPolicy(AllocationProperties allocationProperties) {
+        return allocationProperties.getPolicy();
+    }
+}
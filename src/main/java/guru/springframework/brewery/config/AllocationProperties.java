@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.config;
+
+import guru.springframework.brewery.services.StandardAllocationPolicy;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Tuning of the beer order allocation, bound from the {@code sfg.brewery.allocation} properties
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "sfg.brewery.allocation")
+public class AllocationProperties {
+
+    /**
+     * Number of worker threads allocating beer partitions, 1 allocates on the calling thread
+     */
+    private int parallelism = 1;
+
+    /**
+     * Allocate placed orders and orders waiting on added inventory right away, not only in the scheduled sweep
+     */
+    private boolean eventDriven = true;
+
+    /**
+     * Number of threads allocating on placed orders and added inventory
+     */
+    private int eventThreads = 2;
+
+    /**
+     * Placed orders and added inventory waiting for an event thread, beyond it they are left to the sweep
+     */
+    private int eventQueueCapacity = 1000;
+
+    /**
+     * Milliseconds between the scheduled sweeps over all NEW orders
+     */
+    private long sweepInterval = 60000;
+
+    /**
+     * Number of orders allocated per transaction by the scheduled sweep
+     */
+    private int chunkSize = 500;
+
+    /**
+     * Several instances allocate against the same database, each with its own node id
+     */
+    private boolean multiNode = false;
+
+    /**
+     * Identifies this instance in the allocation leases of orders, must differ between instances
+     */
+    private String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * Milliseconds an instance may hold the orders it claimed before other instances can take them over
+     */
+    private long leaseDuration = 30000;
+
+    /**
+     * Which orders get scarce inventory first
+     */
+    private StandardAllocationPolicy policy = StandardAllocationPolicy.OLDEST_FIRST;
+
+    /**
+     * Milliseconds after which a waiting order goes ahead of the policy, oldest first, 0 disables it
+     */
+    private long maxWait = 900000;
+
+    /**
+     * Milliseconds between compactions of the inventory rows
+     */
+    private long compactionInterval = 300000;
+
+    private final Ledger ledger = new Ledger();
+
+    private final Admission admission = new Admission();
+
+    @Getter
+    @Setter
+    public static class Ledger {
+
+        /**
+         * Allocate from the in memory inventory ledger, only safe when a single instance allocates, refused with
+         * multi-node
+         */
+        private boolean enabled = false;
+
+        /**
+         * Milliseconds between writing allocated quantities back to the inventory rows
+         */
+        private long flushInterval = 1000;
+
+        /**
+         * Milliseconds between full reconciliations of the ledger with the inventory rows
+         */
+        private long reconcileInterval = 300000;
+    }
+
+    @Getter
+    @Setter
+    public static class Admission {
+
+        /**
+         * Turn orders away while the backlog of NEW orders is above the thresholds
+         */
+        private boolean enabled = true;
+
+        /**
+         * Backlog above which a customer with customer-max-backlog NEW orders gets 429 Too Many Requests
+         */
+        private long throttleBacklog = 2000;
+
+        /**
+         * NEW orders a customer may have waiting while the backlog is above the throttle backlog
+         */
+        private long customerMaxBacklog = 50;
+
+        /**
+         * Backlog above which every order gets 503 Service Unavailable
+         */
+        private long maxBacklog = 10000;
+
+        /**
+         * Milliseconds between samples of the backlog and how fast allocation drains it
+         */
+        private long sampleInterval = 1000;
+    }
+}
@@ -17,14 +17,20 @@
 
 package guru.springframework.brewery.config;
 
+import guru.springframework.brewery.domain.UUIDGeneration;
+import guru.springframework.brewery.domain.UUIDStorage;
 import org.hibernate.Interceptor;
+import org.hibernate.id.UUIDGenerator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
 
+import java.util.Collections;
 import java.util.Map;
 
 @Configuration
@@ -33,9 +39,20 @@ public class HibernateConfig implements HibernatePropertiesCustomizer {
     @Autowired
     Interceptor orderHeaderInterceptor;
 
+    @Value("${sfg.brewery.uuid-storage:CHAR}")
+    UUIDStorage uuidStorage;
+
+    @Value("${sfg.brewery.uuid-generation:RANDOM}")
+    UUIDGeneration uuidGeneration;
+
     @Override
     public void customize(Map<String, Object> hibernateProperties) {
         hibernateProperties.put("hibernate.ejb.interceptor", orderHeaderInterceptor);
+        hibernateProperties.put("hibernate.metadata_builder_contributor", uuidStorage);
+        hibernateProperties.put("hibernate.integrator_provider",
+                (IntegratorProvider) () -> Collections.singletonList(uuidStorage));
+        // the strategy of the id generator of every entity, see AssignableUUIDGenerator
+        hibernateProperties.put(UUIDGenerator.UUID_GEN_STRATEGY, uuidGeneration);
     }
 
     @Bean
@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tuning of the bulk order import, bound from the {@code sfg.brewery.order.import} properties
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "sfg.brewery.order.import")
+public class OrderImportProperties {
+
+    /**
+     * Number of orders imported and committed per transaction, also the number of records held in memory
+     */
+    private int commitInterval = 500;
+
+    /**
+     * Number of inserts sent to the database per JDBC batch while importing
+     */
+    private int jdbcBatchSize = 100;
+}
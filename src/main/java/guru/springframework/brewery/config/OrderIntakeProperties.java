@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+
+/**
+ * Tuning of the asynchronous order intake, bound from the {@code sfg.brewery.order.intake} properties
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "sfg.brewery.order.intake")
+public class OrderIntakeProperties {
+
+    /**
+     * Queue orders of requests preferring to be answered asynchronously, and place them in the background
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory of the intake log, must not be shared between instances
+     */
+    private String directory = Paths.get(System.getProperty("java.io.tmpdir"), "brewery-intake").toString();
+
+    /**
+     * Force every accepted order to disk before answering, concurrent requests share one force
+     */
+    private boolean syncWrites = true;
+
+    /**
+     * Bytes after which the intake log continues in a new segment, consumed segments are deleted
+     */
+    private long segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * Number of queued orders placed per transaction
+     */
+    private int batchSize = 500;
+
+    /**
+     * Milliseconds between looking for queued orders
+     */
+    private long pollInterval = 100;
+
+    /**
+     * Queued orders above which requests are answered with 503 until the queue drained
+     */
+    private int maxQueued = 100000;
+}
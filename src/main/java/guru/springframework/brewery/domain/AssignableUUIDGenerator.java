@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.domain;
+
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.UUIDGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Generates UUIDs like {@link UUIDGenerator}, but keeps an id the application assigned before persisting, e.g. the id
+ * an order queued by the intake was accepted with.
+ *
+ * The UUIDs are generated by the {@value UUIDGenerator#UUID_GEN_STRATEGY} Hibernate setting, a {@link UUIDGeneration},
+ * unless the generator of the entity is given its own strategy.
+ */
+public class AssignableUUIDGenerator extends UUIDGenerator {
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) {
+        Object strategy = serviceRegistry.getService(ConfigurationService.class).getSettings().get(UUID_GEN_STRATEGY);
+
+        if (strategy != null && !params.containsKey(UUID_GEN_STRATEGY) && !params.containsKey(UUID_GEN_STRATEGY_CLASS)) {
+            params.put(UUID_GEN_STRATEGY, strategy);
+        }
+        super.configure(type, params, serviceRegistry);
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        Serializable id = session.getEntityPersister(null, object).getIdentifier(object, session);
+
+        return (id != null) ? id : super.generate(session, object);
+    }
+}
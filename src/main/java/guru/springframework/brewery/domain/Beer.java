@@ -16,6 +16,7 @@
  */
 package guru.springframework.brewery.domain;
 
+import guru.springframework.brewery.interceptors.BeerEntityListener;
 import guru.springframework.brewery.web.model.BeerStyleEnum;
 import lombok.Builder;
 import lombok.Getter;
@@ -24,6 +25,7 @@ import lombok.Setter;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.OneToMany;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
@@ -37,6 +39,7 @@ import java.util.UUID;
 @Setter
 @Entity
 @NoArgsConstructor
+@EntityListeners(BeerEntityListener.class)
 public class Beer extends BaseEntity {
 
     @Builder
@@ -16,12 +16,14 @@
  */
 package guru.springframework.brewery.domain;
 
+import guru.springframework.brewery.interceptors.BeerInventoryEntityListener;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.ManyToOne;
 import java.sql.Timestamp;
 import java.util.UUID;
@@ -33,6 +35,7 @@ import java.util.UUID;
 @Setter
 @NoArgsConstructor
 @Entity
+@EntityListeners(BeerInventoryEntityListener.class)
 public class BeerInventory extends BaseEntity{
 
     @Builder
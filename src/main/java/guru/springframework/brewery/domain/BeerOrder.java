@@ -25,8 +25,11 @@ import org.hibernate.annotations.FetchMode;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import java.sql.Timestamp;
 import java.util.Set;
 import java.util.UUID;
@@ -37,19 +40,30 @@ import java.util.UUID;
 @Getter
 @Setter
 @Entity
+@Table(indexes = {
+        @Index(name = "beer_order_status_created_idx", columnList = "orderStatus, createdDate, id"),
+        @Index(name = "beer_order_customer_created_idx", columnList = "customer_id, createdDate, id")},
+        uniqueConstraints = @UniqueConstraint(name = BeerOrder.IDEMPOTENCY_KEY_CONSTRAINT,
+                columnNames = {"customer_id", "idempotencyKey"}))
 @NoArgsConstructor
 public class BeerOrder extends BaseEntity {
 
+    public static final String IDEMPOTENCY_KEY_CONSTRAINT = "beer_order_customer_idempotency_key_uk";
+
     @Builder
     public BeerOrder(UUID id, Long version, Timestamp createdDate, Timestamp lastModifiedDate, String customerRef, Customer customer,
                      Set<BeerOrderLine> beerOrderLines, OrderStatusEnum orderStatus,
-                     String orderStatusCallbackUrl) {
+                     String orderStatusCallbackUrl, String allocationOwner, Timestamp allocationLeaseExpiry,
+                     String idempotencyKey) {
         super(id, version, createdDate, lastModifiedDate);
         this.customerRef = customerRef;
         this.customer = customer;
         this.beerOrderLines = beerOrderLines;
         this.orderStatus = orderStatus;
         this.orderStatusCallbackUrl = orderStatusCallbackUrl;
+        this.allocationOwner = allocationOwner;
+        this.allocationLeaseExpiry = allocationLeaseExpiry;
+        this.idempotencyKey = idempotencyKey;
     }
 
     private String customerRef;
@@ -63,4 +77,15 @@ public class BeerOrder extends BaseEntity {
 
     private OrderStatusEnum orderStatus = OrderStatusEnum.NEW;
     private String orderStatusCallbackUrl;
+
+    /**
+     * Node currently allocating the order, other nodes leave it alone until the lease expires
+     */
+    private String allocationOwner;
+    private Timestamp allocationLeaseExpiry;
+
+    /**
+     * Identifies the request which placed the order, a repeated request gets the order placed first
+     */
+    private String idempotencyKey;
 }
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.domain;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.UUIDGenerationStrategy;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Generates time ordered UUIDs laid out as version 7 UUIDs: the milliseconds since the epoch in the first 48 bits,
+ * followed by the version, a 12 bit sequence, the variant and 62 random bits.
+ *
+ * Ids generated later compare greater, as bytes and as text, so new rows are appended at the right edge of the
+ * primary key index rather than spread over all of it. Within a millisecond the sequence, started at a random value
+ * in its lower half, counts up, and once it runs out the timestamp is moved on by a millisecond, so the ids of one
+ * instance increase even when the clock goes back. The random bits keep the ids of several instances apart.
+ */
+public class TimeOrderedUUIDStrategy implements UUIDGenerationStrategy {
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+
+    private final SecureRandom random = new SecureRandom();
+
+    // guarded by this
+    private long lastTimestamp;
+    private int sequence;
+
+    @Override
+    public int getGeneratedVersion() {
+        return 7;
+    }
+
+    @Override
+    public UUID generateUUID(SharedSessionContractImplementor session) {
+        long timestamp;
+        int timestampSequence;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+
+            if (now > lastTimestamp) {
+                lastTimestamp = now;
+                sequence = random.nextInt((MAX_SEQUENCE + 1) / 2);
+            } else if (sequence < MAX_SEQUENCE) {
+                sequence++;
+            } else {
+                lastTimestamp++;
+                sequence = 0;
+            }
+            timestamp = lastTimestamp;
+            timestampSequence = sequence;
+        }
+
+        long mostSignificantBits = (timestamp << 16) | (7L << SEQUENCE_BITS) | timestampSequence;
+        long leastSignificantBits = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.domain;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.UUIDGenerationStrategy;
+import org.hibernate.id.uuid.StandardRandomStrategy;
+
+import java.util.UUID;
+
+/**
+ * How new ids are generated, selected with {@code sfg.brewery.uuid-generation}.
+ *
+ * {@link #RANDOM} generates random (version 4) UUIDs, which insert every new row at a random place of the primary key
+ * index. {@link #TIME_ORDERED} generates UUIDs which increase over time, see {@link TimeOrderedUUIDStrategy}, so the
+ * rows inserted together share the index pages at its right edge. Either kind is a plain {@link UUID}, both can be
+ * in the same table.
+ */
+public enum UUIDGeneration implements UUIDGenerationStrategy {
+
+    RANDOM(StandardRandomStrategy.INSTANCE),
+    TIME_ORDERED(new TimeOrderedUUIDStrategy());
+
+    private final UUIDGenerationStrategy strategy;
+
+    UUIDGeneration(UUIDGenerationStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public int getGeneratedVersion() {
+        return strategy.getGeneratedVersion();
+    }
+
+    @Override
+    public UUID generateUUID(SharedSessionContractImplementor session) {
+        return strategy.generateUUID(session);
+    }
+
+    /**
+     * An id generated outside of Hibernate, for an entity to be persisted with it later
+     */
+    public UUID generateUUID() {
+        return strategy.generateUUID(null);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.domain;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.boot.spi.MetadataImplementor;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.Table;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.hibernate.type.UUIDBinaryType;
+import org.hibernate.type.UUIDCharType;
+
+import java.util.UUID;
+
+/**
+ * How the ids and other {@link UUID} attributes are stored, selected with {@code sfg.brewery.uuid-storage}.
+ *
+ * {@link #CHAR} stores the 36 characters of the text form, {@link #BINARY} the 16 bytes of the UUID, which makes
+ * every primary key, foreign key and index entry less than half the size and compares them as bytes. Contributed
+ * to Hibernate as the type of every UUID attribute, and as an integrator sizing their columns before the schema is
+ * generated.
+ *
+ * Existing databases keep the storage they were created with, see UUIDStorageMigration to move one to binary.
+ */
+public enum UUIDStorage implements MetadataBuilderContributor, Integrator {
+
+    CHAR(UUIDCharType.INSTANCE, 36),
+    BINARY(UUIDBinaryType.INSTANCE, 16);
+
+    private final AbstractSingleColumnStandardBasicType<UUID> type;
+    private final int length;
+
+    UUIDStorage(AbstractSingleColumnStandardBasicType<UUID> type, int length) {
+        this.type = type;
+        this.length = length;
+    }
+
+    @Override
+    public void contribute(MetadataBuilder metadataBuilder) {
+        metadataBuilder.applyBasicType(type, UUID.class.getName());
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        for (Table table : metadata.collectTableMappings()) {
+            table.getColumnIterator().forEachRemaining(column -> {
+                if (isUUID((Column) column, (MetadataImplementor) metadata)) {
+                    ((Column) column).setLength(length);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    private static boolean isUUID(Column column, MetadataImplementor metadata) {
+        if (column.getValue() == null || column.getValue().getColumnSpan() != 1) {
+            return false;
+        }
+
+        Type columnType = column.getValue().getType();
+
+        if (columnType instanceof EntityType) {
+            // foreign keys take the type of the id they reference
+            columnType = ((EntityType) columnType).getIdentifierOrUniqueKeyType(metadata);
+        }
+
+        return UUID.class.equals(columnType.getReturnedClass());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.events;
+
+import guru.springframework.brewery.services.BeerOrderAllocationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Starts allocation once a placed order or added inventory has been committed, the simulation does this itself in
+ * virtual time
+ */
+@Slf4j
+@Component
+@Profile("!simulation")
+@ConditionalOnProperty(name = "sfg.brewery.allocation.event-driven", havingValue = "true", matchIfMissing = true)
+public class BeerOrderAllocationEventListener {
+
+    private final BeerOrderAllocationService beerOrderAllocationService;
+
+    public BeerOrderAllocationEventListener(BeerOrderAllocationService beerOrderAllocationService) {
+        this.beerOrderAllocationService = beerOrderAllocationService;
+    }
+
+    @Async("allocationEventExecutor")
+    @TransactionalEventListener
+    public void onBeerOrderPlaced(BeerOrderPlacedEvent event) {
+        log.debug("Allocating placed order-> {}", event.getBeerOrder().getId());
+
+        beerOrderAllocationService.allocateBeerOrder(event.getBeerOrder().getId());
+    }
+
+    @Async("allocationEventExecutor")
+    @TransactionalEventListener
+    public void onBeerInventoryAdded(BeerInventoryAddedEvent event) {
+        log.debug("Allocating orders waiting on beer-> {}", event.getBeerInventory().getBeer().getId());
+
+        beerOrderAllocationService.allocateBeerOrdersWaitingOnBeer(event.getBeerInventory().getBeer().getId());
+    }
+}
@@ -21,11 +21,14 @@ import guru.springframework.brewery.web.mappers.DateMapper;
 import guru.springframework.brewery.web.model.OrderStatusUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+// simulated orders have no callback url
+@Profile("!simulation")
 @Component
 @Slf4j
 public class BeerOrderStatusChangeEventListener {
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.interceptors;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.events.BeerSavedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Catch beer inserts, updates and deletes, bulk updates of beers bypass it
+ */
+@Slf4j
+@Component
+public class BeerEntityListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    public BeerEntityListener(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onPostSave(Beer beer) {
+        log.debug("Beer saved-> {}", beer.getId());
+
+        publisher.publishEvent(new BeerSavedEvent(beer));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.interceptors;
+
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.events.BeerInventoryAddedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.PostPersist;
+
+/**
+ * Catch inventory inserts
+ */
+@Slf4j
+@Component
+public class BeerInventoryEntityListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    public BeerInventoryEntityListener(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @PostPersist
+    public void onPostPersist(BeerInventory beerInventory) {
+        log.debug("Beer inventory added");
+
+        publisher.publishEvent(new BeerInventoryAddedEvent(beerInventory));
+    }
+}
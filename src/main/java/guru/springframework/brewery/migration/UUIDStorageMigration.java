@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Moves a database with the ids stored as characters over to binary ids, see
+ * {@link guru.springframework.brewery.domain.UUIDStorage}.
+ *
+ * Runs with the {@code uuid-migration} profile against an empty database of the application, which Hibernate gives
+ * the schema of the binary storage, and copies every table of it from the {@code sfg.brewery.uuid-migration} source.
+ * Tables are copied in the order of their foreign keys, in JDBC batches, and a column which is binary in the new
+ * schema and characters in the old one has its UUIDs converted to their 16 bytes on the way. The copy is plain JDBC,
+ * so it works between any two databases the drivers are on the class path for, and leaves the source untouched to
+ * fall back to. Orders must not be placed in the source while it runs.
+ */
+@Slf4j
+@Component
+@Profile("uuid-migration")
+public class UUIDStorageMigration implements CommandLineRunner {
+
+    private final UUIDStorageMigrationProperties migrationProperties;
+    private final DataSource dataSource;
+
+    public UUIDStorageMigration(UUIDStorageMigrationProperties migrationProperties, DataSource dataSource) {
+        this.migrationProperties = migrationProperties;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void run(String... args) throws SQLException {
+        try (Connection source = DriverManager.getConnection(migrationProperties.getSourceUrl(),
+                migrationProperties.getSourceUsername(), migrationProperties.getSourcePassword());
+             Connection target = dataSource.getConnection()) {
+            migrate(source, target);
+        }
+    }
+
+    void migrate(Connection source, Connection target) throws SQLException {
+        source.setAutoCommit(false);
+        target.setAutoCommit(false);
+
+        List<String> tables = findTablesInInsertOrder(target);
+
+        for (String table : tables) {
+            if (countRows(target, table) > 0) {
+                throw new IllegalStateException("Table " + table + " already has rows, migrate into an empty database");
+            }
+        }
+
+        for (String table : tables) {
+            long started = System.currentTimeMillis();
+            long rows = copyTable(source, target, table);
+
+            log.info("Copied {} rows of {} in {} ms", rows, table, System.currentTimeMillis() - started);
+        }
+    }
+
+    /**
+     * Tables of the new schema, every table after the tables its foreign keys reference
+     */
+    private List<String> findTablesInInsertOrder(Connection target) throws SQLException {
+        DatabaseMetaData metaData = target.getMetaData();
+        Map<String, Set<String>> referencedTables = new LinkedHashMap<>();
+
+        try (ResultSet tables = metaData.getTables(target.getCatalog(), target.getSchema(), "%",
+                new String[]{"TABLE"})) {
+            while (tables.next()) {
+                referencedTables.put(tables.getString("TABLE_NAME"), new LinkedHashSet<>());
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> table : referencedTables.entrySet()) {
+            try (ResultSet importedKeys = metaData.getImportedKeys(target.getCatalog(), target.getSchema(),
+                    table.getKey())) {
+                while (importedKeys.next()) {
+                    String referencedTable = importedKeys.getString("PKTABLE_NAME");
+
+                    if (!referencedTable.equals(table.getKey())) {
+                        table.getValue().add(referencedTable);
+                    }
+                }
+            }
+        }
+
+        List<String> insertOrder = new ArrayList<>();
+
+        while (insertOrder.size() < referencedTables.size()) {
+            List<String> next = referencedTables.entrySet().stream()
+                    .filter(table -> !insertOrder.contains(table.getKey()))
+                    .filter(table -> insertOrder.containsAll(table.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList());
+
+            if (next.isEmpty()) {
+                throw new IllegalStateException("Foreign keys between the tables form a cycle: " + referencedTables);
+            }
+            insertOrder.addAll(next);
+        }
+        return insertOrder;
+    }
+
+    private long countRows(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet count = statement.executeQuery("select count(*) from " + table)) {
+            count.next();
+            return count.getLong(1);
+        }
+    }
+
+    private long copyTable(Connection source, Connection target, String table) throws SQLException {
+        Map<String, Integer> targetTypes = new LinkedHashMap<>();
+
+        try (ResultSet columns = target.getMetaData().getColumns(target.getCatalog(), target.getSchema(), table, "%")) {
+            while (columns.next()) {
+                targetTypes.put(columns.getString("COLUMN_NAME"), columns.getInt("DATA_TYPE"));
+            }
+        }
+
+        String columnList = String.join(", ", targetTypes.keySet());
+        String placeholders = targetTypes.keySet().stream().map(column -> "?").collect(Collectors.joining(", "));
+        long rows = 0;
+
+        try (Statement select = source.createStatement();
+             PreparedStatement insert = target.prepareStatement(
+                     "insert into " + table + " (" + columnList + ") values (" + placeholders + ")")) {
+            select.setFetchSize(migrationProperties.getBatchSize());
+
+            try (ResultSet sourceRows = select.executeQuery("select " + columnList + " from " + table)) {
+                boolean[] converted = findConvertedColumns(sourceRows.getMetaData(), targetTypes);
+
+                while (sourceRows.next()) {
+                    int index = 1;
+
+                    for (int targetType : targetTypes.values()) {
+                        Object value = sourceRows.getObject(index);
+
+                        if (value == null) {
+                            insert.setNull(index, targetType);
+                        } else if (converted[index]) {
+                            insert.setBytes(index, toBytes(UUID.fromString(value.toString())));
+                        } else {
+                            insert.setObject(index, value);
+                        }
+                        index++;
+                    }
+                    insert.addBatch();
+
+                    if (++rows % migrationProperties.getBatchSize() == 0) {
+                        insert.executeBatch();
+                        target.commit();
+                    }
+                }
+            }
+            insert.executeBatch();
+            target.commit();
+        }
+        return rows;
+    }
+
+    /**
+     * Indexes of the columns read as characters and written as binary, the UUIDs
+     */
+    private boolean[] findConvertedColumns(ResultSetMetaData sourceColumns, Map<String, Integer> targetTypes)
+            throws SQLException {
+        boolean[] converted = new boolean[targetTypes.size() + 1];
+        int index = 1;
+
+        for (int targetType : targetTypes.values()) {
+            converted[index] = isBinary(targetType) && isCharacters(sourceColumns.getColumnType(index));
+            index++;
+        }
+        return converted;
+    }
+
+    private static boolean isBinary(int type) {
+        return type == Types.BINARY || type == Types.VARBINARY;
+    }
+
+    private static boolean isCharacters(int type) {
+        return type == Types.CHAR || type == Types.VARCHAR || type == Types.NCHAR || type == Types.NVARCHAR;
+    }
+
+    static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.migration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Database the UUID storage migration copies from, bound from the {@code sfg.brewery.uuid-migration} properties.
+ *
+ * The database copied to is the one of the application, the {@code spring.datasource} properties.
+ */
+@Getter
+@Setter
+@Component
+@Profile("uuid-migration")
+@ConfigurationProperties(prefix = "sfg.brewery.uuid-migration")
+public class UUIDStorageMigrationProperties {
+
+    /**
+     * JDBC url of the database with the ids stored as characters
+     */
+    private String sourceUrl;
+
+    private String sourceUsername;
+
+    private String sourcePassword;
+
+    /**
+     * Rows inserted per JDBC batch and per commit
+     */
+    private int batchSize = 1000;
+}
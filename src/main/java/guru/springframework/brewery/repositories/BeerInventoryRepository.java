@@ -19,7 +19,11 @@ package guru.springframework.brewery.repositories;
 import guru.springframework.brewery.domain.Beer;
 import guru.springframework.brewery.domain.BeerInventory;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -29,4 +33,33 @@ import java.util.UUID;
 public interface BeerInventoryRepository extends JpaRepository<BeerInventory, UUID> {
 
     List<BeerInventory> findAllByBeer(Beer beer);
+
+    /**
+     * Loads the inventory rows of the given beers which still hold stock, oldest first. Used up rows are kept
+     * with a quantity of 0 until they are compacted.
+     */
+    @Query("select i from BeerInventory i where i.beer.id in :beerIds and i.quantityOnHand > 0 " +
+            "order by i.createdDate, i.id")
+    List<BeerInventory> findAllOnHandByBeerIdIn(@Param("beerIds") Collection<UUID> beerIds);
+
+    @Query("select i.beer.id from BeerInventory i where i.quantityOnHand > 0 group by i.beer.id having count(i) > 1")
+    List<UUID> findBeerIdsWithSeveralRowsOnHand();
+
+    @Modifying
+    @Query("delete from BeerInventory i where coalesce(i.quantityOnHand, 0) = 0")
+    int deleteAllUsedUp();
+
+    @Query("select i.beer.id as beerId, sum(i.quantityOnHand) as quantity from BeerInventory i group by i.beer.id")
+    List<BeerQuantity> findQuantityOnHandByBeer();
+
+    @Query("select i.beer.id as beerId, sum(i.quantityOnHand) as quantity from BeerInventory i " +
+            "where i.beer.id in :beerIds group by i.beer.id")
+    List<BeerQuantity> findQuantityOnHandByBeerIdIn(@Param("beerIds") Collection<UUID> beerIds);
+
+    interface BeerQuantity {
+
+        UUID getBeerId();
+
+        Long getQuantity();
+    }
 }
@@ -18,9 +18,47 @@
 package guru.springframework.brewery.repositories;
 
 import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 public interface BeerOrderLineRepository extends PagingAndSortingRepository<BeerOrderLine, UUID> {
+
+    /**
+     * Per beer the quantity still open on lines of orders in the given status, the number of those orders and the
+     * quantity on hand, aggregated by the database without loading any entity
+     */
+    @Query("select b.id as beerId, b.beerName as beerName, b.upc as upc, " +
+            "sum(l.orderQuantity - coalesce(l.quantityAllocated, 0)) as quantityOpen, " +
+            "count(distinct l.beerOrder.id) as blockedOrders, " +
+            "(select coalesce(sum(i.quantityOnHand), 0) from BeerInventory i where i.beer.id = b.id) as quantityOnHand " +
+            "from BeerOrderLine l join l.beer b " +
+            "where l.beerOrder.orderStatus = :orderStatus and l.orderQuantity > coalesce(l.quantityAllocated, 0) " +
+            "group by b.id, b.beerName, b.upc")
+    List<BeerDemand> findOpenDemandByBeer(@Param("orderStatus") OrderStatusEnum orderStatus);
+
+    @Query("select new guru.springframework.brewery.repositories.BeerOrderLineRow(l.id, l.version, l.createdDate, " +
+            "l.lastModifiedDate, l.beerOrder.id, l.beer.id, l.orderQuantity, l.quantityAllocated) " +
+            "from BeerOrderLine l where l.beerOrder.id in :beerOrderIds")
+    List<BeerOrderLineRow> findRowsByBeerOrderIdIn(@Param("beerOrderIds") Collection<UUID> beerOrderIds);
+
+    interface BeerDemand {
+
+        UUID getBeerId();
+
+        String getBeerName();
+
+        Long getUpc();
+
+        Long getQuantityOpen();
+
+        Long getBlockedOrders();
+
+        Long getQuantityOnHand();
+    }
 }
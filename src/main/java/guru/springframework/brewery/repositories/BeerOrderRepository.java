@@ -22,8 +22,14 @@ import guru.springframework.brewery.domain.OrderStatusEnum;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 
@@ -32,7 +38,152 @@ import java.util.UUID;
  */
 public interface BeerOrderRepository  extends JpaRepository<BeerOrder, UUID> {
 
+    String SELECT_BEER_ORDER_ROWS = "select new guru.springframework.brewery.repositories.BeerOrderRow(o.id, " +
+            "o.version, o.createdDate, o.lastModifiedDate, o.customer.id, o.customerRef, o.orderStatus, " +
+            "o.orderStatusCallbackUrl) from BeerOrder o";
+
     Page<BeerOrder> findAllByCustomer(Customer customer, Pageable pageable);
 
+    /**
+     * Page of the ids of the orders of the customer, oldest first, the orders of the page are read with
+     * {@link #findRowsByIdIn(Collection)}
+     */
+    // ordered by the columns of beer_order_customer_created_idx, which saves sorting all orders of the customer
+    @Query(value = "select o.id from BeerOrder o where o.customer.id = :customerId " +
+            "order by o.customer.id, o.createdDate, o.id",
+            countQuery = "select count(o) from BeerOrder o where o.customer.id = :customerId")
+    Page<UUID> findIdsByCustomerId(@Param("customerId") UUID customerId, Pageable pageable);
+
+    @Query(SELECT_BEER_ORDER_ROWS + " where o.id in :ids")
+    List<BeerOrderRow> findRowsByIdIn(@Param("ids") Collection<UUID> ids);
+
+    @Query(SELECT_BEER_ORDER_ROWS + " where o.id = :id and o.customer.id = :customerId")
+    Optional<BeerOrderRow> findRowByIdAndCustomerId(@Param("id") UUID id, @Param("customerId") UUID customerId);
+
+    /**
+     * Version of the order plus the versions of its lines. Lines are updated on their own, so every change of the
+     * order or one of its lines raises the revision.
+     */
+    @Query("select o.version + coalesce(sum(l.version), 0) from BeerOrder o left join o.beerOrderLines l " +
+            "where o.id = :id and o.customer.id = :customerId group by o.id, o.version")
+    Optional<Long> findRevisionByIdAndCustomerId(@Param("id") UUID id, @Param("customerId") UUID customerId);
+
+    /**
+     * First page of the keys of the orders of the customer, oldest first, without counting them
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.customer.id = :customerId " +
+            "order by o.customer.id, o.createdDate, o.id")
+    List<BeerOrderKey> findKeysByCustomerId(@Param("customerId") UUID customerId, Pageable pageable);
+
+    /**
+     * Next page of the keys of the orders of the customer, starting after the given key
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.customer.id = :customerId " +
+            "and (o.createdDate > :createdDate or (o.createdDate = :createdDate and o.id > :id)) " +
+            "order by o.customer.id, o.createdDate, o.id")
+    List<BeerOrderKey> findKeysByCustomerIdAfter(@Param("customerId") UUID customerId,
+                                                 @Param("createdDate") Timestamp createdDate, @Param("id") UUID id,
+                                                 Pageable pageable);
+
     List<BeerOrder> findAllByOrderStatus(OrderStatusEnum orderStatusEnum);
+
+    long countByOrderStatus(OrderStatusEnum orderStatusEnum);
+
+    Optional<BeerOrder> findByCustomerIdAndIdempotencyKey(UUID customerId, String idempotencyKey);
+
+    boolean existsByIdAndCustomerId(UUID id, UUID customerId);
+
+    @Query("select o.id from BeerOrder o where o.id in :ids")
+    List<UUID> findExistingIds(@Param("ids") Collection<UUID> ids);
+
+    long countByCustomerIdAndOrderStatus(UUID customerId, OrderStatusEnum orderStatusEnum);
+
+    @Query("select min(o.createdDate) from BeerOrder o where o.orderStatus = :orderStatus")
+    Timestamp findOldestCreatedDateByOrderStatus(@Param("orderStatus") OrderStatusEnum orderStatusEnum);
+
+    /**
+     * First page of the keys of the orders with the given status, ordered by creation
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.orderStatus = :orderStatus " +
+            "order by o.createdDate, o.id")
+    List<BeerOrderKey> findKeysByOrderStatus(@Param("orderStatus") OrderStatusEnum orderStatusEnum, Pageable pageable);
+
+    /**
+     * Next page of the keys of the orders with the given status, starting after the given key
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.orderStatus = :orderStatus " +
+            "and (o.createdDate > :createdDate or (o.createdDate = :createdDate and o.id > :id)) " +
+            "order by o.createdDate, o.id")
+    List<BeerOrderKey> findKeysByOrderStatusAfter(@Param("orderStatus") OrderStatusEnum orderStatusEnum,
+                                                  @Param("createdDate") Timestamp createdDate, @Param("id") UUID id,
+                                                  Pageable pageable);
+
+    /**
+     * Leases the given NEW orders to the owner, unless they are leased to another owner which has not expired yet
+     *
+     * @return the number of orders leased
+     */
+    @Modifying
+    @Query("update BeerOrder o set o.allocationOwner = :owner, o.allocationLeaseExpiry = :leaseExpiry " +
+            "where o.id in :ids and o.orderStatus = :orderStatus " +
+            "and (o.allocationOwner is null or o.allocationOwner = :owner or o.allocationLeaseExpiry < :now)")
+    int claimForAllocation(@Param("ids") Collection<UUID> ids, @Param("orderStatus") OrderStatusEnum orderStatusEnum,
+                           @Param("owner") String owner, @Param("leaseExpiry") Timestamp leaseExpiry,
+                           @Param("now") Timestamp now);
+
+    /**
+     * Loads the given orders leased to the owner together with their customer, lines and line beers in a single select
+     */
+    @Query("select distinct o from BeerOrder o left join fetch o.customer " +
+            "left join fetch o.beerOrderLines l left join fetch l.beer where o.id in :ids and o.orderStatus = :orderStatus " +
+            "and o.allocationOwner = :owner order by o.createdDate, o.id")
+    List<BeerOrder> findAllWithLinesClaimedBy(@Param("ids") Collection<UUID> ids,
+                                              @Param("orderStatus") OrderStatusEnum orderStatusEnum,
+                                              @Param("owner") String owner);
+
+    /**
+     * First page of the keys of the orders with at least one line of the given beers which still needs inventory,
+     * ordered by creation
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.orderStatus = :orderStatus " +
+            "and exists (select ol.id from BeerOrderLine ol where ol.beerOrder = o and ol.beer.id in :beerIds " +
+            "and ol.orderQuantity > coalesce(ol.quantityAllocated, 0)) order by o.createdDate, o.id")
+    List<BeerOrderKey> findKeysWaitingOnBeers(@Param("beerIds") Collection<UUID> beerIds,
+                                              @Param("orderStatus") OrderStatusEnum orderStatusEnum, Pageable pageable);
+
+    /**
+     * Next page of the keys of the orders waiting on the given beers, starting after the given key
+     */
+    @Query("select o.id as id, o.createdDate as createdDate from BeerOrder o where o.orderStatus = :orderStatus " +
+            "and (o.createdDate > :createdDate or (o.createdDate = :createdDate and o.id > :id)) " +
+            "and exists (select ol.id from BeerOrderLine ol where ol.beerOrder = o and ol.beer.id in :beerIds " +
+            "and ol.orderQuantity > coalesce(ol.quantityAllocated, 0)) order by o.createdDate, o.id")
+    List<BeerOrderKey> findKeysWaitingOnBeersAfter(@Param("beerIds") Collection<UUID> beerIds,
+                                                   @Param("orderStatus") OrderStatusEnum orderStatusEnum,
+                                                   @Param("createdDate") Timestamp createdDate, @Param("id") UUID id,
+                                                   Pageable pageable);
+
+    /**
+     * Idempotency keys of the given customers which are among the given keys, to be matched up by the caller
+     */
+    @Query("select o.id as id, o.customer.id as customerId, o.idempotencyKey as idempotencyKey from BeerOrder o " +
+            "where o.customer.id in :customerIds and o.idempotencyKey in :idempotencyKeys")
+    List<BeerOrderIdempotencyKey> findIdempotencyKeys(@Param("customerIds") Collection<UUID> customerIds,
+                                                      @Param("idempotencyKeys") Collection<String> idempotencyKeys);
+
+    interface BeerOrderKey {
+
+        UUID getId();
+
+        Timestamp getCreatedDate();
+    }
+
+    interface BeerOrderIdempotencyKey {
+
+        UUID getId();
+
+        UUID getCustomerId();
+
+        String getIdempotencyKey();
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.repositories;
+
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import lombok.Getter;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Columns of an order which reads answer with, selected without loading the entity or its lines
+ */
+@Getter
+public class BeerOrderRow {
+
+    private final UUID id;
+    private final Long version;
+    private final Timestamp createdDate;
+    private final Timestamp lastModifiedDate;
+    private final UUID customerId;
+    private final String customerRef;
+    private final OrderStatusEnum orderStatus;
+    private final String orderStatusCallbackUrl;
+
+    // constructor expressions pass timestamps typed as dates, like BeerRow
+    public BeerOrderRow(UUID id, Long version, Date createdDate, Date lastModifiedDate, UUID customerId,
+                        String customerRef, OrderStatusEnum orderStatus, String orderStatusCallbackUrl) {
+        this.id = id;
+        this.version = version;
+        this.createdDate = (Timestamp) createdDate;
+        this.lastModifiedDate = (Timestamp) lastModifiedDate;
+        this.customerId = customerId;
+        this.customerRef = customerRef;
+        this.orderStatus = orderStatus;
+        this.orderStatusCallbackUrl = orderStatusCallbackUrl;
+    }
+}
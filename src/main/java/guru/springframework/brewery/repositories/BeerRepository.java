@@ -21,18 +21,44 @@ import guru.springframework.brewery.domain.Beer;
 import guru.springframework.brewery.web.model.BeerStyleEnum;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Optional;
 import java.util.UUID;
 
 /**
  * Created by jt on 2019-01-26.
  */
 public interface BeerRepository extends JpaRepository<Beer, UUID> {
+
+    String SELECT_BEER_ROWS = "select new guru.springframework.brewery.repositories.BeerRow(b.id, b.version, " +
+            "b.createdDate, b.lastModifiedDate, b.beerName, b.beerStyle, b.upc, b.price) from Beer b";
     
     Page<Beer> findAllByBeerName(String beerName, PageRequest pageRequest);
 
     Page<Beer> findAllByBeerStyle(BeerStyleEnum beerStyle, PageRequest pageRequest);
 
     Page<Beer> findAllByBeerNameAndBeerStyle(String beerName, BeerStyleEnum beerStyle, PageRequest pageRequest);
+
+    @Query("select b.version from Beer b where b.id = :id")
+    Optional<Long> findVersionById(@Param("id") UUID id);
+
+    @Query(value = SELECT_BEER_ROWS, countQuery = "select count(b) from Beer b")
+    Page<BeerRow> findAllRows(Pageable pageable);
+
+    @Query(value = SELECT_BEER_ROWS + " where b.beerName = :beerName",
+            countQuery = "select count(b) from Beer b where b.beerName = :beerName")
+    Page<BeerRow> findRowsByBeerName(@Param("beerName") String beerName, Pageable pageable);
+
+    @Query(value = SELECT_BEER_ROWS + " where b.beerStyle = :beerStyle",
+            countQuery = "select count(b) from Beer b where b.beerStyle = :beerStyle")
+    Page<BeerRow> findRowsByBeerStyle(@Param("beerStyle") BeerStyleEnum beerStyle, Pageable pageable);
+
+    @Query(value = SELECT_BEER_ROWS + " where b.beerName = :beerName and b.beerStyle = :beerStyle",
+            countQuery = "select count(b) from Beer b where b.beerName = :beerName and b.beerStyle = :beerStyle")
+    Page<BeerRow> findRowsByBeerNameAndBeerStyle(@Param("beerName") String beerName,
+                                                 @Param("beerStyle") BeerStyleEnum beerStyle, Pageable pageable);
 }
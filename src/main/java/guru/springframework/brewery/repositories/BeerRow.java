@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.repositories;
+
+import guru.springframework.brewery.web.model.BeerStyleEnum;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Columns of a beer which reads answer with, selected without loading the entity
+ */
+@Getter
+public class BeerRow {
+
+    private final UUID id;
+    private final Long version;
+    private final Timestamp createdDate;
+    private final Timestamp lastModifiedDate;
+    private final String beerName;
+    private final BeerStyleEnum beerStyle;
+    private final Long upc;
+    private final BigDecimal price;
+
+    // Hibernate looks up the constructor of a constructor expression with the timestamps typed as dates,
+    // the values passed are timestamps
+    public BeerRow(UUID id, Long version, Date createdDate, Date lastModifiedDate, String beerName,
+                   BeerStyleEnum beerStyle, Long upc, BigDecimal price) {
+        this.id = id;
+        this.version = version;
+        this.createdDate = (Timestamp) createdDate;
+        this.lastModifiedDate = (Timestamp) lastModifiedDate;
+        this.beerName = beerName;
+        this.beerStyle = beerStyle;
+        this.upc = upc;
+        this.price = price;
+    }
+}
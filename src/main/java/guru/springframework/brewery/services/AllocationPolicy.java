@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerOrder;
+
+import java.util.List;
+
+/**
+ * Decides which orders get scarce inventory first. Orders earlier in the returned list are allocated first.
+ *
+ * The standard policies are {@link StandardAllocationPolicy}, selected with {@code sfg.brewery.allocation.policy}.
+ * A bean of this type replaces them.
+ */
+public interface AllocationPolicy {
+
+    List<BeerOrder> prioritize(List<BeerOrder> beerOrders);
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerOrder;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What one allocation transaction did, recorded in the metrics once the transaction committed.
+ * Lines are counted from the allocation worker threads.
+ */
+@Getter
+class AllocationResult {
+
+    private final AtomicInteger fullyAllocatedLines = new AtomicInteger();
+    private final AtomicInteger partiallyAllocatedLines = new AtomicInteger();
+    private final List<BeerOrder> readyBeerOrders = new ArrayList<>();
+
+    /**
+     * Orders allocated in full, which became READY, not all the orders the allocation went over
+     */
+    int getAllocatedOrders() {
+        return readyBeerOrders.size();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.config.AllocationProperties;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides whether a new order is accepted, from the backlog of NEW orders and how fast allocation drains it.
+ *
+ * Above {@code sfg.brewery.allocation.admission.throttle-backlog} a customer who already has
+ * {@code customer-max-backlog} orders waiting is turned away with 429, so a few heavy customers cannot crowd out
+ * everybody else. Above {@code max-backlog} every order is turned away with 503 until allocation caught up. Both
+ * tell the client when to retry, from the time allocation needs to drain the backlog down to the throttle backlog.
+ *
+ * The backlog is counted at most once per {@code sample-interval}, by the request which finds the sample outdated.
+ * The drain rate is a moving average of the orders which left NEW between two samples.
+ */
+@Slf4j
+@Service
+public class BeerOrderAdmissionService {
+
+    private static final double DRAIN_RATE_WEIGHT = 0.3;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+
+    private final BeerOrderRepository beerOrderRepository;
+    private final AllocationProperties allocationProperties;
+    private final Clock clock;
+
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private final AtomicLong admittedSinceSample = new AtomicLong();
+    private volatile long backlog;
+    private volatile long sampledAt;
+    // orders per second
+    private volatile double drainRate;
+
+    public BeerOrderAdmissionService(BeerOrderRepository beerOrderRepository, AllocationProperties allocationProperties,
+                                     Clock clock) {
+        this.beerOrderRepository = beerOrderRepository;
+        this.allocationProperties = allocationProperties;
+        this.clock = clock;
+    }
+
+    /**
+     * @throws BeerOrderNotAdmittedException when the order must not be placed now
+     */
+    public void admit(UUID customerId) {
+        AllocationProperties.Admission admission = allocationProperties.getAdmission();
+
+        if (!admission.isEnabled()) {
+            return;
+        }
+
+        long currentBacklog = sampleBacklog();
+
+        if (currentBacklog >= admission.getMaxBacklog()) {
+            log.debug("Rejecting order of customer " + customerId + ", backlog of " + currentBacklog + " orders");
+
+            throw new BeerOrderNotAdmittedException(HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds(currentBacklog),
+                    "Too many orders waiting for allocation");
+        }
+
+        if (currentBacklog >= admission.getThrottleBacklog() && beerOrderRepository
+                .countByCustomerIdAndOrderStatus(customerId, OrderStatusEnum.NEW) >= admission.getCustomerMaxBacklog()) {
+            log.debug("Throttling customer " + customerId + ", backlog of " + currentBacklog + " orders");
+
+            throw new BeerOrderNotAdmittedException(HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds(currentBacklog),
+                    "Too many orders of the customer waiting for allocation");
+        }
+
+        admittedSinceSample.incrementAndGet();
+    }
+
+    public long getBacklog() {
+        return backlog;
+    }
+
+    public double getDrainRate() {
+        return drainRate;
+    }
+
+    private long sampleBacklog() {
+        long now = clock.millis();
+
+        // requests finding the sample outdated while another one takes it go on with the previous sample
+        if (now - sampledAt >= allocationProperties.getAdmission().getSampleInterval() && sampleLock.tryLock()) {
+            try {
+                if (now - sampledAt >= allocationProperties.getAdmission().getSampleInterval()) {
+                    long sampledBacklog = beerOrderRepository.countByOrderStatus(OrderStatusEnum.NEW);
+                    long admitted = admittedSinceSample.getAndSet(0);
+
+                    // nothing to drain says nothing about the rate
+                    if (sampledAt > 0 && backlog + admitted > 0) {
+                        double rate = Math.max(0, backlog + admitted - sampledBacklog) * 1000d / (now - sampledAt);
+                        drainRate = DRAIN_RATE_WEIGHT * rate + (1 - DRAIN_RATE_WEIGHT) * drainRate;
+                    }
+
+                    backlog = sampledBacklog;
+                    sampledAt = now;
+                }
+            } finally {
+                sampleLock.unlock();
+            }
+        }
+        return backlog;
+    }
+
+    private long retryAfterSeconds(long currentBacklog) {
+        long excess = Math.max(1, currentBacklog - allocationProperties.getAdmission().getThrottleBacklog());
+
+        if (drainRate <= 0) {
+            return MAX_RETRY_AFTER_SECONDS;
+        }
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, (long) Math.ceil(excess / drainRate)));
+    }
+}
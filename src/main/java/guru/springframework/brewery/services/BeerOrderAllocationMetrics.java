@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation of the beer order allocation, exposed through the actuator metrics endpoint.
+ *
+ * The backlog gauges query the database when they are read, every other meter is updated once an allocation
+ * transaction committed.
+ */
+@Component
+public class BeerOrderAllocationMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary fullyAllocatedLines;
+    private final DistributionSummary partiallyAllocatedLines;
+    private final Counter deletedInventoryRows;
+    private final Timer placedToReady;
+    private final Clock clock;
+
+    public BeerOrderAllocationMetrics(MeterRegistry meterRegistry, BeerOrderRepository beerOrderRepository, Clock clock) {
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+
+        Gauge.builder("brewery.allocation.backlog", beerOrderRepository,
+                repository -> repository.countByOrderStatus(OrderStatusEnum.NEW))
+                .description("Orders waiting for allocation")
+                .baseUnit("orders")
+                .register(meterRegistry);
+
+        TimeGauge.builder("brewery.allocation.oldest.age", beerOrderRepository, TimeUnit.MILLISECONDS,
+                repository -> {
+                    Timestamp oldest = repository.findOldestCreatedDateByOrderStatus(OrderStatusEnum.NEW);
+                    return oldest == null ? 0 : clock.millis() - oldest.getTime();
+                })
+                .description("Age of the oldest order waiting for allocation")
+                .register(meterRegistry);
+
+        fullyAllocatedLines = DistributionSummary.builder("brewery.allocation.lines")
+                .description("Order lines which got inventory per allocation run")
+                .baseUnit("lines")
+                .tag("allocation", "full")
+                .register(meterRegistry);
+
+        partiallyAllocatedLines = DistributionSummary.builder("brewery.allocation.lines")
+                .description("Order lines which got inventory per allocation run")
+                .baseUnit("lines")
+                .tag("allocation", "partial")
+                .register(meterRegistry);
+
+        deletedInventoryRows = Counter.builder("brewery.allocation.inventory.deleted")
+                .description("Inventory rows removed by compaction")
+                .register(meterRegistry);
+
+        placedToReady = Timer.builder("brewery.order.placed.ready")
+                .description("Time from placing an order until it was completely allocated")
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    public Run startRun() {
+        return new Run(Timer.start(meterRegistry));
+    }
+
+    /**
+     * Records the duration of the run and the lines it allocated
+     *
+     * @param trigger what started the run, the scheduled sweep or events
+     */
+    public void stopRun(Run run, String trigger) {
+        run.sample.stop(Timer.builder("brewery.allocation.run")
+                .description("Duration of allocation runs")
+                .tag("trigger", trigger)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+
+        fullyAllocatedLines.record(run.fullyAllocatedLines);
+        partiallyAllocatedLines.record(run.partiallyAllocatedLines);
+    }
+
+    public void inventoryRowsDeleted(int count) {
+        deletedInventoryRows.increment(count);
+    }
+
+    /**
+     * Adds what one committed allocation transaction of the run did
+     */
+    void record(Run run, AllocationResult allocationResult) {
+        run.fullyAllocatedLines += allocationResult.getFullyAllocatedLines().get();
+        run.partiallyAllocatedLines += allocationResult.getPartiallyAllocatedLines().get();
+
+        allocationResult.getReadyBeerOrders().forEach(this::orderReady);
+    }
+
+    /**
+     * Records the time from placing the order until now, when it became READY
+     */
+    public void orderReady(BeerOrder beerOrder) {
+        if (beerOrder.getCreatedDate() != null) {
+            placedToReady.record(clock.millis() - beerOrder.getCreatedDate().getTime(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * One sweep or event driven allocation, which may commit any number of chunks
+     */
+    public static final class Run {
+
+        private final Timer.Sample sample;
+        private int fullyAllocatedLines;
+        private int partiallyAllocatedLines;
+
+        private Run(Timer.Sample sample) {
+            this.sample = sample;
+        }
+    }
+}
@@ -17,24 +17,71 @@
 
 package guru.springframework.brewery.services;
 
+import guru.springframework.brewery.config.AllocationProperties;
 import guru.springframework.brewery.domain.BeerInventory;
 import guru.springframework.brewery.domain.BeerOrder;
 import guru.springframework.brewery.domain.BeerOrderLine;
 import guru.springframework.brewery.domain.OrderStatusEnum;
 import guru.springframework.brewery.repositories.BeerInventoryRepository;
 import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository.BeerOrderKey;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.transaction.Transactional;
+import java.sql.Timestamp;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Service to allocate inventory to orders.
  *
+ * Orders, lines and inventory are loaded with a few bulk queries, allocation happens in memory and the changes
+ * are written back by Hibernate in JDBC batches when the transaction is flushed.
+ *
+ * With {@code sfg.brewery.allocation.parallelism} above 1 the beers are split into partitions which are allocated
+ * on separate worker threads. A beer and its inventory rows belong to exactly one partition, and order statuses
+ * are only updated once every partition has finished.
+ *
+ * Allocation is triggered by events: a placed order is allocated as soon as it is committed, and added inventory
+ * retries only the orders waiting on that beer. Requests arriving while an allocation is running are collected and
+ * handled together by the thread already holding the allocation lock. The scheduled sweep over all NEW orders is
+ * kept as a low frequency safety net. It walks the NEW orders oldest first in keyset chunks of
+ * {@code sfg.brewery.allocation.chunk-size}, each allocated and committed in its own transaction.
+ *
+ * Several instances may allocate against the same database. Before allocating, an instance leases the orders to
+ * its {@code sfg.brewery.allocation.node-id} for {@code sfg.brewery.allocation.lease-duration} and only allocates
+ * the orders it got, so instances work on disjoint orders. Orders of an instance which died are taken over once
+ * their lease expired. Inventory rows shared by the orders of several instances are protected by their version.
+ *
+ * Which orders get scarce inventory first is decided by the {@link AllocationPolicy}, except that orders waiting
+ * longer than {@code sfg.brewery.allocation.max-wait} always go first, so no policy can starve an order. The policy
+ * orders the orders of one chunk, chunks themselves are swept oldest first.
+ *
+ * With {@code sfg.brewery.allocation.ledger.enabled} stock is taken from the {@link InventoryLedger} instead of the
+ * BeerInventory rows, which the ledger updates later in the background.
  */
 @Slf4j
 @Service
@@ -42,79 +89,369 @@ public class BeerOrderAllocationService {
 
     private final BeerOrderRepository beerOrderRepository;
     private final BeerInventoryRepository beerInventoryRepository;
+    private final AllocationProperties allocationProperties;
+    private final AsyncTaskExecutor allocationTaskExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final Optional<InventoryLedger> inventoryLedger;
+    private final BeerOrderAllocationMetrics allocationMetrics;
+    private final AllocationPolicy allocationPolicy;
+    private final Clock clock;
+
+    // held for the whole transaction so the next allocation always reads the committed result of the previous one
+    private final ReentrantLock allocationLock = new ReentrantLock();
+    private final Set<UUID> pendingBeerOrderIds = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> pendingBeerIds = ConcurrentHashMap.newKeySet();
 
-    public BeerOrderAllocationService(BeerOrderRepository beerOrderRepository, BeerInventoryRepository beerInventoryRepository) {
+    public BeerOrderAllocationService(BeerOrderRepository beerOrderRepository, BeerInventoryRepository beerInventoryRepository,
+                                      AllocationProperties allocationProperties,
+                                      @Qualifier("allocationTaskExecutor") AsyncTaskExecutor allocationTaskExecutor,
+                                      TransactionTemplate transactionTemplate,
+                                      Optional<InventoryLedger> inventoryLedger,
+                                      BeerOrderAllocationMetrics allocationMetrics,
+                                      AllocationPolicy allocationPolicy,
+                                      Clock clock) {
         this.beerOrderRepository = beerOrderRepository;
         this.beerInventoryRepository = beerInventoryRepository;
+        this.allocationProperties = allocationProperties;
+        this.allocationTaskExecutor = allocationTaskExecutor;
+        this.transactionTemplate = transactionTemplate;
+        this.inventoryLedger = inventoryLedger;
+        this.allocationMetrics = allocationMetrics;
+        this.allocationPolicy = allocationPolicy;
+        this.clock = clock;
     }
 
-    @Transactional
-    @Scheduled(fixedRate = 5000) //run every 5 seconds
+    @Scheduled(fixedDelayString = "${sfg.brewery.allocation.sweep-interval:60000}")
     public void runBeerOrderAllocation(){
         log.debug("Starting Beer Order Allocation");
 
-        List<BeerOrder> newOrders = beerOrderRepository.findAllByOrderStatus(OrderStatusEnum.NEW);
+        BeerOrderAllocationMetrics.Run run = allocationMetrics.startRun();
+        Pageable chunk = PageRequest.of(0, allocationProperties.getChunkSize());
+        int allocatedOrders = 0;
+        List<BeerOrderKey> keys = beerOrderRepository.findKeysByOrderStatus(OrderStatusEnum.NEW, chunk);
 
-        if (newOrders.size() > 0 ) {
+        while (!keys.isEmpty()) {
+            allocatedOrders += allocateChunk(keys.stream().map(BeerOrderKey::getId).collect(Collectors.toList()), run);
 
-            log.debug("Number of orders found to allocate: " + newOrders.size());
+            if (keys.size() < allocationProperties.getChunkSize()) {
+                break;
+            }
 
-            newOrders.forEach(beerOrder -> {
-                log.debug("Allocating Order" + beerOrder.getCustomerRef());
+            BeerOrderKey lastKey = keys.get(keys.size() - 1);
+            keys = beerOrderRepository.findKeysByOrderStatusAfter(OrderStatusEnum.NEW, lastKey.getCreatedDate(),
+                    lastKey.getId(), chunk);
+        }
 
-                AtomicInteger totalOrdered = new AtomicInteger();
-                AtomicInteger totalAllocated = new AtomicInteger();
+        if (allocatedOrders > 0) {
+            log.debug("Number of orders allocated: " + allocatedOrders);
+        } else {
+            log.debug("No Orders To Allocate");
+        }
 
-                beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
-                    if ((beerOrderLine.getOrderQuantity() - beerOrderLine.getQuantityAllocated()) > 0) {
-                        allocateBeerOrderLine(beerOrderLine);
-                    }
-                    totalOrdered.set(totalOrdered.get() + beerOrderLine.getOrderQuantity());
-                    totalAllocated.set(totalAllocated.get() + beerOrderLine.getQuantityAllocated());
-                });
+        allocationMetrics.stopRun(run, "sweep");
+    }
+
+    /**
+     * Allocates one chunk of the sweep in its own transactions, so the persistence context and the time the lock
+     * is held do not grow with the backlog
+     */
+    private int allocateChunk(List<UUID> beerOrderIds, BeerOrderAllocationMetrics.Run run) {
+        allocationLock.lock();
+        try {
+            return allocateClaimed(beerOrderIds, run);
+        } catch (RuntimeException e) {
+            // e.g. another node updated the same inventory, the orders stay NEW and leased to this node until
+            // the lease expires or this node picks them up again
+            log.error("Error allocating chunk of beer orders", e);
+            return 0;
+        } finally {
+            allocationLock.unlock();
+            // orders placed and inventory added meanwhile could not get the lock, they do not wait for the next sweep
+            allocatePending();
+        }
+    }
+
+    /**
+     * Allocates a single order, called once the order has been committed
+     */
+    public void allocateBeerOrder(UUID beerOrderId) {
+        pendingBeerOrderIds.add(beerOrderId);
+        allocatePending();
+    }
+
+    /**
+     * Retries the NEW orders with open lines for the given beer, called when inventory for the beer was added
+     */
+    public void allocateBeerOrdersWaitingOnBeer(UUID beerId) {
+        inventoryLedger.ifPresent(ledger -> ledger.reconcile(Set.of(beerId)));
+
+        pendingBeerIds.add(beerId);
+        allocatePending();
+    }
+
+    private void allocatePending() {
+        // whoever holds the lock picks up ids added by threads which could not get it
+        while (!(pendingBeerOrderIds.isEmpty() && pendingBeerIds.isEmpty()) && allocationLock.tryLock()) {
+            BeerOrderAllocationMetrics.Run run = allocationMetrics.startRun();
+            try {
+                List<UUID> beerOrderIds = new ArrayList<>(takeAll(pendingBeerOrderIds));
+                Set<UUID> beerIds = takeAll(pendingBeerIds);
+                int allocatedOrders = 0;
 
-                if(totalOrdered.get() == totalAllocated.get()){
-                    log.debug("Order Completely Allocated: " + beerOrder.getCustomerRef());
-                    beerOrder.setOrderStatus(OrderStatusEnum.READY);
+                // chunk by chunk like the sweep, a popular beer can have any number of orders waiting on it
+                for (int from = 0; from < beerOrderIds.size(); from += allocationProperties.getChunkSize()) {
+                    allocatedOrders += allocateClaimed(beerOrderIds.subList(from,
+                            Math.min(from + allocationProperties.getChunkSize(), beerOrderIds.size())), run);
                 }
+                if (!beerIds.isEmpty()) {
+                    allocatedOrders += allocateWaitingOn(beerIds, run);
+                }
+
+                log.debug("Allocated " + allocatedOrders + " orders for placed orders and " + beerIds.size()
+                        + " beers with new inventory");
+            } catch (RuntimeException e) {
+                // the orders stay NEW and are picked up again by the scheduled sweep
+                log.error("Error allocating beer orders", e);
+            } finally {
+                allocationLock.unlock();
+                allocationMetrics.stopRun(run, "event");
+            }
+        }
+    }
+
+    /**
+     * Allocates the NEW orders waiting on the given beers one chunk at a time, oldest first.
+     * Must be called holding the allocation lock.
+     */
+    private int allocateWaitingOn(Set<UUID> beerIds, BeerOrderAllocationMetrics.Run run) {
+        Pageable chunk = PageRequest.of(0, allocationProperties.getChunkSize());
+        int allocatedOrders = 0;
+        List<BeerOrderKey> keys = beerOrderRepository.findKeysWaitingOnBeers(beerIds, OrderStatusEnum.NEW, chunk);
+
+        while (!keys.isEmpty()) {
+            allocatedOrders += allocateClaimed(keys.stream().map(BeerOrderKey::getId).collect(Collectors.toList()), run);
+
+            if (keys.size() < allocationProperties.getChunkSize()) {
+                break;
+            }
+
+            BeerOrderKey lastKey = keys.get(keys.size() - 1);
+            keys = beerOrderRepository.findKeysWaitingOnBeersAfter(beerIds, OrderStatusEnum.NEW,
+                    lastKey.getCreatedDate(), lastKey.getId(), chunk);
+        }
+        return allocatedOrders;
+    }
+
+    /**
+     * Leases the given orders to this node in a short transaction of its own, so other nodes see the lease right
+     * away, then allocates the orders it got and releases their lease in a second transaction.
+     * Must be called holding the allocation lock.
+     *
+     * @return the number of orders allocated in full
+     */
+    private int allocateClaimed(Collection<UUID> beerOrderIds, BeerOrderAllocationMetrics.Run run) {
+        if (beerOrderIds.isEmpty()) {
+            return 0;
+        }
+
+        String nodeId = allocationProperties.getNodeId();
+        long now = clock.millis();
+
+        Integer claimed = transactionTemplate.execute(status -> beerOrderRepository.claimForAllocation(beerOrderIds,
+                OrderStatusEnum.NEW, nodeId, new Timestamp(now + allocationProperties.getLeaseDuration()),
+                new Timestamp(now)));
+
+        if (claimed == null || claimed == 0) {
+            return 0;
+        }
+
+        AllocationResult allocationResult = transactionTemplate.execute(status -> {
+            List<BeerOrder> beerOrders = beerOrderRepository.findAllWithLinesClaimedBy(beerOrderIds,
+                    OrderStatusEnum.NEW, nodeId);
+
+            AllocationResult result = allocateBeerOrders(beerOrders);
+
+            beerOrders.forEach(beerOrder -> {
+                beerOrder.setAllocationOwner(null);
+                beerOrder.setAllocationLeaseExpiry(null);
             });
+
+            //update orders
+            beerOrderRepository.saveAll(beerOrders);
+            return result;
+        });
+
+        allocationMetrics.record(run, allocationResult);
+        return allocationResult.getAllocatedOrders();
+    }
+
+    private Set<UUID> takeAll(Set<UUID> pendingIds) {
+        Set<UUID> taken = new HashSet<>();
+        Iterator<UUID> iterator = pendingIds.iterator();
+
+        while (iterator.hasNext()) {
+            taken.add(iterator.next());
+            iterator.remove();
+        }
+        return taken;
+    }
+
+    private AllocationResult allocateBeerOrders(List<BeerOrder> beerOrders) {
+        AllocationResult result = new AllocationResult();
+
+        // inventory of one beer is only ever used by lines of that beer, so allocating the lines beer by beer
+        // (in the order of the policy) gives the same result as walking the orders line by line
+        Map<UUID, List<BeerOrderLine>> openLinesByBeer = new LinkedHashMap<>();
+
+        prioritize(beerOrders).forEach(beerOrder -> beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
+            if (getQuantityToAllocate(beerOrderLine) > 0) {
+                openLinesByBeer.computeIfAbsent(beerOrderLine.getBeer().getId(), beerId -> new ArrayList<>())
+                        .add(beerOrderLine);
+            }
+        }));
+
+        if (openLinesByBeer.isEmpty()) {
+            beerOrders.forEach(beerOrder -> updateOrderStatus(beerOrder, result));
+            return result;
+        }
+
+        if (inventoryLedger.isPresent()) {
+            InventoryLedger.Reservation reservation = inventoryLedger.get().reserve();
+
+            allocateBeers(openLinesByBeer, reservation::stockOf, result);
+            reservation.complete();
         } else {
-            log.debug("No Orders To Allocate");
+            Map<UUID, List<BeerInventory>> inventoryByBeer = beerInventoryRepository
+                    .findAllOnHandByBeerIdIn(openLinesByBeer.keySet())
+                    .stream()
+                    .collect(Collectors.groupingBy(beerInventory -> beerInventory.getBeer().getId()));
+
+            // rows used up stay with a quantity of 0 until the InventoryCompactionService removes them
+            allocateBeers(openLinesByBeer, beerId ->
+                    new InventoryRowStock(inventoryByBeer.getOrDefault(beerId, Collections.emptyList())), result);
+        }
+
+        beerOrders.forEach(beerOrder -> updateOrderStatus(beerOrder, result));
+        return result;
+    }
+
+    /**
+     * Orders waiting longer than the max wait first, oldest first, then the remaining orders as the policy decides
+     */
+    private List<BeerOrder> prioritize(List<BeerOrder> beerOrders) {
+        if (allocationProperties.getMaxWait() <= 0) {
+            return allocationPolicy.prioritize(beerOrders);
+        }
+
+        long waitingSince = clock.millis() - allocationProperties.getMaxWait();
+        Map<Boolean, List<BeerOrder>> waitedTooLong = beerOrders.stream()
+                .collect(Collectors.partitioningBy(beerOrder -> beerOrder.getCreatedDate() != null
+                        && beerOrder.getCreatedDate().getTime() < waitingSince));
+
+        List<BeerOrder> prioritized = StandardAllocationPolicy.OLDEST_FIRST.prioritize(waitedTooLong.get(true));
+        prioritized.addAll(allocationPolicy.prioritize(waitedTooLong.get(false)));
+        return prioritized;
+    }
+
+    private void allocateBeers(Map<UUID, List<BeerOrderLine>> openLinesByBeer, Function<UUID, BeerStock> stockOfBeer,
+                               AllocationResult result) {
+        if (allocationProperties.getParallelism() > 1 && openLinesByBeer.size() > 1) {
+            allocatePartitions(openLinesByBeer, stockOfBeer, result);
+        } else {
+            openLinesByBeer.forEach((beerId, beerOrderLines) ->
+                    allocateBeer(beerOrderLines, stockOfBeer.apply(beerId), result));
         }
+    }
+
+    private void allocatePartitions(Map<UUID, List<BeerOrderLine>> openLinesByBeer, Function<UUID, BeerStock> stockOfBeer,
+                                    AllocationResult result) {
+        List<Future<?>> futures = new ArrayList<>();
 
-        //update orders
-        beerOrderRepository.saveAll(newOrders);
+        partitionBeers(openLinesByBeer, allocationProperties.getParallelism()).forEach(beerIds ->
+                futures.add(allocationTaskExecutor.submit(() -> beerIds.forEach(beerId ->
+                        allocateBeer(openLinesByBeer.get(beerId), stockOfBeer.apply(beerId), result)))));
 
+        // the workers only touch entities already loaded by this thread, joining them publishes their changes
+        // back to the transaction before it is flushed
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for beer order allocation", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Beer order allocation failed", e.getCause());
+            }
+        }
     }
 
-    private void allocateBeerOrderLine(BeerOrderLine beerOrderLine) {
-        List<BeerInventory> beerInventoryList = beerInventoryRepository.findAllByBeer(beerOrderLine.getBeer());
+    /**
+     * Splits the beers into partitions of similar line count, largest beers first
+     */
+    private List<List<UUID>> partitionBeers(Map<UUID, List<BeerOrderLine>> openLinesByBeer, int partitionCount) {
+        List<List<UUID>> partitions = new ArrayList<>();
+        int[] partitionSizes = new int[Math.min(partitionCount, openLinesByBeer.size())];
+
+        for (int i = 0; i < partitionSizes.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+
+        openLinesByBeer.entrySet().stream()
+                .sorted(Comparator.comparingInt((Map.Entry<UUID, List<BeerOrderLine>> entry) -> entry.getValue().size())
+                        .reversed())
+                .forEach(entry -> {
+                    int smallest = 0;
+                    for (int i = 1; i < partitionSizes.length; i++) {
+                        if (partitionSizes[i] < partitionSizes[smallest]) {
+                            smallest = i;
+                        }
+                    }
+                    partitions.get(smallest).add(entry.getKey());
+                    partitionSizes[smallest] += entry.getValue().size();
+                });
 
-        beerInventoryList.forEach(beerInventory -> {
-            int inventory = (beerInventory.getQuantityOnHand() == null) ? 0 : beerInventory.getQuantityOnHand();
-            int orderQty = (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity() ;
+        return partitions;
+    }
+
+    private void allocateBeer(List<BeerOrderLine> beerOrderLines, BeerStock beerStock, AllocationResult result) {
+        beerOrderLines.forEach(beerOrderLine -> {
             int allocatedQty = (beerOrderLine.getQuantityAllocated() == null) ? 0 : beerOrderLine.getQuantityAllocated();
-            int qtyToAllocate = orderQty - allocatedQty;
-
-            if(inventory >= qtyToAllocate){ // full allocation
-                inventory = inventory - qtyToAllocate;
-                beerOrderLine.setQuantityAllocated(orderQty);
-                beerInventory.setQuantityOnHand(inventory);
-            } else if (inventory > 0) { //partial allocation
-                beerOrderLine.setQuantityAllocated(allocatedQty + inventory);
-                beerInventory.setQuantityOnHand(0);
+            int taken = beerStock.take(getQuantityToAllocate(beerOrderLine));
+
+            beerOrderLine.setQuantityAllocated(allocatedQty + taken);
+
+            if (taken > 0) {
+                if (getQuantityToAllocate(beerOrderLine) == 0) {
+                    result.getFullyAllocatedLines().incrementAndGet();
+                } else {
+                    result.getPartiallyAllocatedLines().incrementAndGet();
+                }
             }
         });
+    }
 
-        beerInventoryRepository.saveAll(beerInventoryList);
+    private void updateOrderStatus(BeerOrder beerOrder, AllocationResult result) {
+        log.debug("Allocating Order" + beerOrder.getCustomerRef());
 
-        //remove zero records
-        List<BeerInventory> zeroRecs = new ArrayList<>();
+        int totalOrdered = 0;
+        int totalAllocated = 0;
+
+        for (BeerOrderLine beerOrderLine : beerOrder.getBeerOrderLines()) {
+            totalOrdered += (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity();
+            totalAllocated += (beerOrderLine.getQuantityAllocated() == null) ? 0 : beerOrderLine.getQuantityAllocated();
+        }
+
+        if(totalOrdered == totalAllocated){
+            log.debug("Order Completely Allocated: " + beerOrder.getCustomerRef());
+            beerOrder.setOrderStatus(OrderStatusEnum.READY);
+            result.getReadyBeerOrders().add(beerOrder);
+        }
+    }
 
-        beerInventoryList.stream()
-                .filter(beerInventory -> beerInventory.getQuantityOnHand() == 0)
-                .forEach(zeroRecs::add);
+    private int getQuantityToAllocate(BeerOrderLine beerOrderLine) {
+        int orderQty = (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity();
+        int allocatedQty = (beerOrderLine.getQuantityAllocated() == null) ? 0 : beerOrderLine.getQuantityAllocated();
 
-        beerInventoryRepository.deleteAll(zeroRecs);
+        return orderQty - allocatedQty;
     }
 }
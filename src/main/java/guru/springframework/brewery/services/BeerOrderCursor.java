@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.repositories.BeerOrderRepository.BeerOrderKey;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a listing of orders ordered by creation, the key of the last order handed out. Clients get it as an
+ * opaque token, which they send back unchanged for the next page.
+ */
+@Getter
+@RequiredArgsConstructor
+final class BeerOrderCursor {
+
+    // id, then the seconds and the nanos of the created date
+    private static final int TOKEN_BYTES = 16 + 8 + 4;
+
+    private final UUID id;
+    private final Timestamp createdDate;
+
+    static BeerOrderCursor of(BeerOrderKey key) {
+        return new BeerOrderCursor(key.getId(), key.getCreatedDate());
+    }
+
+    static BeerOrderCursor decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new BeerOrderCursorInvalidException("Malformed cursor");
+        }
+
+        if (bytes.length != TOKEN_BYTES) {
+            throw new BeerOrderCursorInvalidException("Malformed cursor");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            UUID id = new UUID(buffer.getLong(), buffer.getLong());
+            return new BeerOrderCursor(id, Timestamp.from(Instant.ofEpochSecond(buffer.getLong(), buffer.getInt())));
+        } catch (DateTimeException | IllegalArgumentException e) {
+            throw new BeerOrderCursorInvalidException("Malformed cursor");
+        }
+    }
+
+    String encode() {
+        Instant created = createdDate.toInstant();
+        ByteBuffer buffer = ByteBuffer.allocate(TOKEN_BYTES)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putLong(created.getEpochSecond())
+                .putInt(created.getNano());
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+}
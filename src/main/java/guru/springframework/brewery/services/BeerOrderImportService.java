@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.web.model.BeerOrderImportResultDto;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface BeerOrderImportService {
+
+    /**
+     * Places the orders read from newline delimited JSON, one {@code BeerOrderDto} per line.
+     *
+     * @param results receives the results of every committed chunk of records, in the order of the records
+     */
+    void importOrders(Reader beerOrders, Consumer<List<BeerOrderImportResultDto>> results) throws IOException;
+}
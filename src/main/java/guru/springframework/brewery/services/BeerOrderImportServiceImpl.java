@@ -0,0 +1,333 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import guru.springframework.brewery.config.OrderImportProperties;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.events.BeerOrderPlacedEvent;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.mappers.BeerOrderMapper;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderImportResultDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Imports orders in bulk without ever holding more than one chunk of them.
+ *
+ * The body is read line by line. Every {@code sfg.brewery.order.import.commit-interval} records are placed in their
+ * own transaction: the customers and beers of the chunk are loaded with one query each, and the orders are inserted
+ * in JDBC batches of {@code sfg.brewery.order.import.jdbc-batch-size}. The results of a chunk are handed out once
+ * it has been committed, so the caller can stream them back while the next chunk is read.
+ *
+ * Like placed orders, records are keyed on their customer ref if so configured, a record already imported or placed
+ * before answers with the order placed first instead of placing it again, or fails if it has other lines.
+ *
+ * A record which cannot be placed fails on its own, the rest of its chunk is still imported. Only a chunk whose
+ * transaction fails as a whole reports all its records as failed.
+ */
+@Slf4j
+@Service
+public class BeerOrderImportServiceImpl implements BeerOrderImportService {
+
+    private final BeerOrderRepository beerOrderRepository;
+    private final CustomerRepository customerRepository;
+    private final BeerRepository beerRepository;
+    private final BeerOrderMapper beerOrderMapper;
+    private final ApplicationEventPublisher publisher;
+    private final BeerOrderAdmissionService beerOrderAdmissionService;
+    private final BeerOrderService beerOrderService;
+    private final OrderImportProperties orderImportProperties;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final ObjectReader beerOrderReader;
+    private final boolean customerRefIdempotencyKey;
+
+    public BeerOrderImportServiceImpl(BeerOrderRepository beerOrderRepository,
+                                      CustomerRepository customerRepository,
+                                      BeerRepository beerRepository,
+                                      BeerOrderMapper beerOrderMapper,
+                                      ApplicationEventPublisher publisher,
+                                      BeerOrderAdmissionService beerOrderAdmissionService,
+                                      BeerOrderService beerOrderService,
+                                      OrderImportProperties orderImportProperties,
+                                      TransactionTemplate transactionTemplate,
+                                      EntityManager entityManager,
+                                      ObjectMapper objectMapper,
+                                      @Value("${sfg.brewery.order.customer-ref-idempotency-key:false}") boolean customerRefIdempotencyKey) {
+        this.beerOrderRepository = beerOrderRepository;
+        this.customerRepository = customerRepository;
+        this.beerRepository = beerRepository;
+        this.beerOrderMapper = beerOrderMapper;
+        this.publisher = publisher;
+        this.beerOrderAdmissionService = beerOrderAdmissionService;
+        this.beerOrderService = beerOrderService;
+        this.orderImportProperties = orderImportProperties;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManager = entityManager;
+        this.beerOrderReader = objectMapper.readerFor(BeerOrderDto.class);
+        this.customerRefIdempotencyKey = customerRefIdempotencyKey;
+    }
+
+    @Override
+    public void importOrders(Reader beerOrders, Consumer<List<BeerOrderImportResultDto>> results) throws IOException {
+        BufferedReader reader = new BufferedReader(beerOrders);
+        int commitInterval = Math.max(1, orderImportProperties.getCommitInterval());
+        List<ImportRecord> chunk = new ArrayList<>(commitInterval);
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            chunk.add(readRecord(lineNumber, line));
+
+            if (chunk.size() == commitInterval) {
+                results.accept(importChunk(chunk));
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            results.accept(importChunk(chunk));
+        }
+    }
+
+    private ImportRecord readRecord(long lineNumber, String line) {
+        try {
+            return new ImportRecord(lineNumber, beerOrderReader.readValue(line), null);
+        } catch (JsonProcessingException e) {
+            return new ImportRecord(lineNumber, null, "Malformed beer order: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            return new ImportRecord(lineNumber, null, "Malformed beer order: " + e.getMessage());
+        }
+    }
+
+    private List<BeerOrderImportResultDto> importChunk(List<ImportRecord> chunk) {
+        List<BeerOrderImportResultDto> results = new ArrayList<>(chunk.size());
+
+        try {
+            transactionTemplate.execute(status -> {
+                importRecords(chunk, results);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Error importing beer orders of lines " + chunk.get(0).getLine() + " to "
+                    + chunk.get(chunk.size() - 1).getLine(), e);
+
+            // nothing of the chunk has been committed
+            results.clear();
+            chunk.forEach(record -> results.add(failed(record, HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Beer order not imported: " + e.getMessage())));
+        }
+        return results;
+    }
+
+    private void importRecords(List<ImportRecord> chunk, List<BeerOrderImportResultDto> results) {
+        entityManager.unwrap(Session.class).setJdbcBatchSize(orderImportProperties.getJdbcBatchSize());
+
+        Map<UUID, Customer> customers = customerRepository.findAllById(chunk.stream()
+                .map(ImportRecord::getBeerOrder)
+                .filter(Objects::nonNull)
+                .map(BeerOrderDto::getCustomerId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Customer::getId, Function.identity()));
+
+        Map<UUID, Beer> beers = beerRepository.findAllById(chunk.stream()
+                .map(ImportRecord::getBeerOrder)
+                .filter(beerOrderDto -> beerOrderDto != null && beerOrderDto.getBeerOrderLines() != null)
+                .flatMap(beerOrderDto -> beerOrderDto.getBeerOrderLines().stream())
+                .map(BeerOrderLineDto::getBeerId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Beer::getId, Function.identity()));
+
+        Map<UUID, Map<String, UUID>> placedOrderIds = findPlacedOrderIds(chunk, customers.keySet());
+
+        chunk.forEach(record -> results.add(importRecord(record, customers, beers, placedOrderIds)));
+
+        // with open session in view the persistence context outlives the transaction, it must not keep every
+        // imported order until the request is done
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * Ids of the orders already placed with the customer refs of the chunk as idempotency key, by customer and key
+     */
+    private Map<UUID, Map<String, UUID>> findPlacedOrderIds(List<ImportRecord> chunk, Set<UUID> customerIds) {
+        Map<UUID, Map<String, UUID>> placedOrderIds = new HashMap<>();
+
+        if (!customerRefIdempotencyKey || customerIds.isEmpty()) {
+            return placedOrderIds;
+        }
+
+        Set<String> idempotencyKeys = chunk.stream()
+                .map(ImportRecord::getBeerOrder)
+                .filter(Objects::nonNull)
+                .map(BeerOrderDto::getCustomerRef)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        if (!idempotencyKeys.isEmpty()) {
+            beerOrderRepository.findIdempotencyKeys(customerIds, idempotencyKeys).forEach(key -> placedOrderIds
+                    .computeIfAbsent(key.getCustomerId(), customerId -> new HashMap<>())
+                    .put(key.getIdempotencyKey(), key.getId()));
+        }
+        return placedOrderIds;
+    }
+
+    private BeerOrderImportResultDto importRecord(ImportRecord record, Map<UUID, Customer> customers,
+                                                  Map<UUID, Beer> beers, Map<UUID, Map<String, UUID>> placedOrderIds) {
+        if (record.getError() != null) {
+            return failed(record, HttpStatus.BAD_REQUEST, record.getError());
+        }
+
+        BeerOrderDto beerOrderDto = record.getBeerOrder();
+        Customer customer = beerOrderDto.getCustomerId() == null ? null : customers.get(beerOrderDto.getCustomerId());
+
+        if (customer == null) {
+            return failed(record, HttpStatus.NOT_FOUND, "Customer Not Found");
+        }
+
+        String idempotencyKey = customerRefIdempotencyKey ? beerOrderDto.getCustomerRef() : null;
+
+        if (idempotencyKey != null) {
+            UUID placedOrderId = placedOrderIds.getOrDefault(customer.getId(), Map.of()).get(idempotencyKey);
+
+            if (placedOrderId != null) {
+                // the key may only be used again for the same order, as when placing it
+                try {
+                    beerOrderService.findPlacedOrder(customer.getId(), beerOrderDto, idempotencyKey);
+                } catch (BeerOrderKeyReusedException e) {
+                    return failed(record, HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage());
+                }
+
+                return BeerOrderImportResultDto.builder()
+                        .line(record.getLine())
+                        .customerRef(beerOrderDto.getCustomerRef())
+                        .orderId(placedOrderId)
+                        .status(HttpStatus.OK.value())
+                        .build();
+            }
+        }
+
+        if (beerOrderDto.getBeerOrderLines() == null || beerOrderDto.getBeerOrderLines().isEmpty()) {
+            return failed(record, HttpStatus.BAD_REQUEST, "Beer order without lines");
+        }
+
+        for (BeerOrderLineDto beerOrderLineDto : beerOrderDto.getBeerOrderLines()) {
+            if (beerOrderLineDto.getBeerId() == null || !beers.containsKey(beerOrderLineDto.getBeerId())) {
+                return failed(record, HttpStatus.NOT_FOUND, "Beer ID not found: " + beerOrderLineDto.getBeerId());
+            }
+        }
+
+        try {
+            beerOrderAdmissionService.admit(customer.getId());
+        } catch (BeerOrderNotAdmittedException e) {
+            BeerOrderImportResultDto result = failed(record, e.getStatus(), e.getMessage());
+            result.setRetryAfterSeconds(e.getRetryAfterSeconds());
+            return result;
+        }
+
+        BeerOrder beerOrder = beerOrderMapper.dtoToBeerOrder(beerOrderDto);
+        beerOrder.setId(null); //should not be set by outside client
+        beerOrder.setCustomer(customer);
+        beerOrder.setOrderStatus(OrderStatusEnum.NEW);
+        beerOrder.setIdempotencyKey(idempotencyKey);
+
+        beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
+            beerOrderLine.setBeer(beers.get(beerOrderLine.getBeer().getId()));
+            beerOrderLine.setBeerOrder(beerOrder);
+        });
+
+        BeerOrder savedBeerOrder = beerOrderRepository.save(beerOrder);
+
+        if (idempotencyKey != null) {
+            // a later record of the same chunk with the same key is not imported again
+            placedOrderIds.computeIfAbsent(customer.getId(), customerId -> new HashMap<>())
+                    .put(idempotencyKey, savedBeerOrder.getId());
+        }
+
+        //allocated once the chunk has been committed
+        publisher.publishEvent(new BeerOrderPlacedEvent(savedBeerOrder));
+
+        return BeerOrderImportResultDto.builder()
+                .line(record.getLine())
+                .customerRef(beerOrderDto.getCustomerRef())
+                .orderId(savedBeerOrder.getId())
+                .status(HttpStatus.CREATED.value())
+                .build();
+    }
+
+    private BeerOrderImportResultDto failed(ImportRecord record, HttpStatus status, String error) {
+        return BeerOrderImportResultDto.builder()
+                .line(record.getLine())
+                .customerRef(record.getBeerOrder() == null ? null : record.getBeerOrder().getCustomerRef())
+                .status(status.value())
+                .error(error)
+                .build();
+    }
+
+    /**
+     * A line of the body, either read or the reason it could not be
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class ImportRecord {
+        private final long line;
+        private final BeerOrderDto beerOrder;
+        private final String error;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append only log of single line records in a directory, the write ahead queue of the order intake.
+ *
+ * Records are appended to the current segment file, which is followed by a new one once it grew beyond the segment
+ * size. An append returns once the record is on disk. Appends arriving while another one forces the segment to disk
+ * wait for it and are then forced together, so concurrent appends share the cost of a force.
+ *
+ * A single consumer reads the records from the checkpoint on and commits how far it got. Records are delivered at
+ * least once: records read but not committed before a crash are read again after it. Segments before the
+ * checkpoint are deleted. A record only partially written by a crash was never acknowledged and is cut off when the
+ * log is opened again.
+ */
+@Slf4j
+public class BeerOrderIntakeLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean syncWrites;
+
+    // guarded by this
+    private long segment;
+    private FileChannel channel;
+    private long size;
+
+    // everything before may be read, with sync writes it is on disk
+    private volatile Position durable;
+    private final Object syncLock = new Object();
+
+    private volatile Position checkpoint;
+
+    public BeerOrderIntakeLog(Path directory, long segmentSize, boolean syncWrites) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncWrites = syncWrites;
+
+        Files.createDirectories(directory);
+
+        List<Long> segments = listSegments();
+        checkpoint = readCheckpoint(segments.isEmpty() ? 0 : segments.get(0));
+        segment = segments.isEmpty() ? checkpoint.getSegment() : Math.max(checkpoint.getSegment(),
+                segments.get(segments.size() - 1));
+
+        truncateTornRecord(segmentPath(segment));
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+        durable = new Position(segment, size);
+
+        deleteSegmentsBefore(checkpoint.getSegment());
+    }
+
+    /**
+     * Appends the record, which must not contain a line break, and returns once it can be read
+     */
+    public void append(String record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+        Position written;
+
+        synchronized (this) {
+            if (size > 0 && size + buffer.remaining() > segmentSize) {
+                roll();
+            }
+
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+            written = new Position(segment, size);
+        }
+
+        if (syncWrites) {
+            sync(written);
+        } else {
+            advanceDurable(written);
+        }
+    }
+
+    public Position getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Reads up to the given number of records from the position on, only records already on disk are read
+     */
+    public Batch read(Position from, int maxRecords) throws IOException {
+        List<String> records = new ArrayList<>();
+        Position position = from;
+
+        while (records.size() < maxRecords) {
+            Position readable = durable;
+
+            if (position.getSegment() > readable.getSegment()) {
+                break;
+            }
+
+            long limit = (position.getSegment() < readable.getSegment())
+                    ? Files.size(segmentPath(position.getSegment())) : readable.getOffset();
+
+            if (position.getOffset() < limit) {
+                long end = readRecords(position, limit, maxRecords - records.size(), records);
+
+                if (end == position.getOffset()) {
+                    break;
+                }
+                position = new Position(position.getSegment(), end);
+            } else if (position.getSegment() < readable.getSegment()) {
+                // the segment was read to its end and is followed by the next one
+                position = new Position(position.getSegment() + 1, 0);
+            } else {
+                break;
+            }
+        }
+        return new Batch(records, position);
+    }
+
+    /**
+     * Records before the position have been consumed, they are not read again after a restart
+     */
+    public void commit(Position position) throws IOException {
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+
+        Files.write(temp, (position.getSegment() + " " + position.getOffset()).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        checkpoint = position;
+
+        deleteSegmentsBefore(position.getSegment());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Forces the segment up to the given position to disk, unless a concurrent force already did
+     */
+    private void sync(Position written) throws IOException {
+        synchronized (syncLock) {
+            if (written.compareTo(durable) <= 0) {
+                return;
+            }
+
+            FileChannel current;
+            Position target;
+
+            synchronized (this) {
+                current = channel;
+                target = new Position(segment, size);
+            }
+
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // rolled over meanwhile, which forced the segment
+                return;
+            }
+            advanceDurable(target);
+        }
+    }
+
+    private synchronized void advanceDurable(Position position) {
+        if (position.compareTo(durable) > 0) {
+            durable = position;
+        }
+    }
+
+    // guarded by this
+    private void roll() throws IOException {
+        channel.force(false);
+        channel.close();
+        advanceDurable(new Position(segment, size));
+
+        segment++;
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = 0;
+    }
+
+    private long readRecords(Position from, long limit, int maxRecords, List<String> records) throws IOException {
+        try (FileChannel in = FileChannel.open(segmentPath(from.getSegment()), StandardOpenOption.READ)) {
+            in.position(from.getOffset());
+
+            InputStream stream = new BufferedInputStream(Channels.newInputStream(in));
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            long offset = from.getOffset();
+            long end = offset;
+            int read = 0;
+
+            while (offset < limit && read < maxRecords) {
+                int b = stream.read();
+
+                if (b < 0) {
+                    break;
+                }
+                offset++;
+
+                if (b == '\n') {
+                    records.add(new String(record.toByteArray(), StandardCharsets.UTF_8));
+                    record.reset();
+                    end = offset;
+                    read++;
+                } else {
+                    record.write(b);
+                }
+            }
+            return end;
+        }
+    }
+
+    private void truncateTornRecord(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = file.size();
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            // back to just after the last line break
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+
+                buffer.clear().limit((int) (end - start));
+                file.read(buffer, start);
+
+                int i = buffer.position() - 1;
+                while (i >= 0 && buffer.get(i) != '\n') {
+                    i--;
+                }
+
+                if (i >= 0) {
+                    end = start + i + 1;
+                    break;
+                }
+                end = start;
+            }
+
+            if (end < file.size()) {
+                log.warn("Cutting off record partially written to " + path + " at " + end);
+                file.truncate(end);
+                file.force(false);
+            }
+        }
+    }
+
+    private Position readCheckpoint(long firstSegment) throws IOException {
+        Path path = directory.resolve(CHECKPOINT);
+
+        if (!Files.exists(path)) {
+            return new Position(firstSegment, 0);
+        }
+
+        String[] checkpoint = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim().split(" ");
+        return new Position(Long.parseLong(checkpoint[0]), Long.parseLong(checkpoint[1]));
+    }
+
+    private void deleteSegmentsBefore(long firstSegment) throws IOException {
+        for (Long consumed : listSegments()) {
+            if (consumed < firstSegment) {
+                Files.deleteIfExists(segmentPath(consumed));
+            }
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d", segment) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Position in the log, before the record at the offset of the segment
+     */
+    @Getter
+    @ToString
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    public static class Position implements Comparable<Position> {
+        private final long segment;
+        private final long offset;
+
+        @Override
+        public int compareTo(Position other) {
+            int bySegment = Long.compare(segment, other.segment);
+            return (bySegment != 0) ? bySegment : Long.compare(offset, other.offset);
+        }
+    }
+
+    /**
+     * Records read, and the position after the last of them
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Batch {
+        private final List<String> records;
+        private final Position end;
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import guru.springframework.brewery.config.OrderIntakeProperties;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.domain.UUIDGeneration;
+import guru.springframework.brewery.events.BeerOrderPlacedEvent;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.mappers.BeerOrderMapper;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderIntakeDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import guru.springframework.brewery.web.model.IntakeStatusEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous intake of orders, which answers before the order is placed.
+ *
+ * An accepted order gets its id right away and is appended to the {@link BeerOrderIntakeLog} in
+ * {@code sfg.brewery.order.intake.directory}, the request is answered once it is on disk. A background consumer
+ * places the queued orders every {@code poll-interval} in batches of {@code batch-size}, one transaction per batch
+ * with the customers and beers of the batch loaded by one query each. If a batch fails as a whole its orders are
+ * placed one by one, so only the orders which cannot be placed are rejected.
+ *
+ * Queued orders survive a restart. They are delivered at least once, an order replayed after it was placed is
+ * recognised by its id. Orders are idempotent on their key like placed orders, a repeated request while the order
+ * is queued gets the id of the queued one.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "sfg.brewery.order.intake.enabled", havingValue = "true")
+public class BeerOrderIntakeService {
+
+    private static final int MAX_OUTCOMES = 100000;
+
+    private final BeerOrderRepository beerOrderRepository;
+    private final CustomerRepository customerRepository;
+    private final BeerRepository beerRepository;
+    private final BeerOrderMapper beerOrderMapper;
+    private final ApplicationEventPublisher publisher;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderIntakeProperties orderIntakeProperties;
+    private final ObjectMapper objectMapper;
+    private final boolean customerRefIdempotencyKey;
+    private final UUIDGeneration uuidGeneration;
+
+    // queued orders to their customer, and queued idempotency keys to their order
+    private final Map<UUID, UUID> queuedOrders = new ConcurrentHashMap<>();
+    private final Map<String, UUID> queuedKeys = new ConcurrentHashMap<>();
+
+    // how recently taken orders went, older ones are looked up
+    private final Cache<UUID, BeerOrderIntakeDto> outcomes = Caffeine.newBuilder()
+            .maximumSize(MAX_OUTCOMES)
+            .build();
+
+    private BeerOrderIntakeLog intakeLog;
+
+    // guarded by this, only the consumer reads the log
+    private BeerOrderIntakeLog.Position consumed;
+
+    public BeerOrderIntakeService(BeerOrderRepository beerOrderRepository,
+                                  CustomerRepository customerRepository,
+                                  BeerRepository beerRepository,
+                                  BeerOrderMapper beerOrderMapper,
+                                  ApplicationEventPublisher publisher,
+                                  TransactionTemplate transactionTemplate,
+                                  OrderIntakeProperties orderIntakeProperties,
+                                  ObjectMapper objectMapper,
+                                  @Value("${sfg.brewery.order.customer-ref-idempotency-key:false}") boolean customerRefIdempotencyKey,
+                                  @Value("${sfg.brewery.uuid-generation:RANDOM}") UUIDGeneration uuidGeneration) {
+        this.beerOrderRepository = beerOrderRepository;
+        this.customerRepository = customerRepository;
+        this.beerRepository = beerRepository;
+        this.beerOrderMapper = beerOrderMapper;
+        this.publisher = publisher;
+        this.transactionTemplate = transactionTemplate;
+        this.orderIntakeProperties = orderIntakeProperties;
+        this.objectMapper = objectMapper;
+        this.customerRefIdempotencyKey = customerRefIdempotencyKey;
+        this.uuidGeneration = uuidGeneration;
+    }
+
+    /**
+     * Opens the intake log and takes up the orders still queued in it
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        intakeLog = new BeerOrderIntakeLog(Paths.get(orderIntakeProperties.getDirectory()),
+                orderIntakeProperties.getSegmentSize(), orderIntakeProperties.isSyncWrites());
+        consumed = intakeLog.getCheckpoint();
+
+        BeerOrderIntakeLog.Position position = consumed;
+        BeerOrderIntakeLog.Batch batch;
+
+        do {
+            batch = intakeLog.read(position, orderIntakeProperties.getBatchSize());
+            readEntries(batch).forEach(entry -> {
+                queuedOrders.put(entry.getOrderId(), entry.getCustomerId());
+
+                if (entry.getIdempotencyKey() != null) {
+                    queuedKeys.put(queuedKey(entry.getCustomerId(), entry.getIdempotencyKey()), entry.getOrderId());
+                }
+            });
+            position = batch.getEnd();
+        } while (!batch.getRecords().isEmpty());
+
+        if (!queuedOrders.isEmpty()) {
+            log.info("Taking up " + queuedOrders.size() + " queued beer orders");
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        intakeLog.close();
+    }
+
+    /**
+     * Queues the order, it is placed in the background
+     *
+     * @throws BeerOrderInvalidException when the order could never be placed
+     * @throws BeerOrderNotAdmittedException when too many orders are queued
+     */
+    public BeerOrderIntakeDto queueOrder(UUID customerId, BeerOrderDto beerOrderDto, String idempotencyKey) {
+        validate(beerOrderDto);
+
+        if (idempotencyKey == null && customerRefIdempotencyKey) {
+            idempotencyKey = beerOrderDto.getCustomerRef();
+        }
+
+        if (queuedOrders.size() >= orderIntakeProperties.getMaxQueued()) {
+            throw new BeerOrderNotAdmittedException(HttpStatus.SERVICE_UNAVAILABLE, 1, "Too many orders queued");
+        }
+
+        UUID orderId = uuidGeneration.generateUUID();
+
+        if (idempotencyKey != null) {
+            UUID queuedOrderId = queuedKeys.putIfAbsent(queuedKey(customerId, idempotencyKey), orderId);
+
+            if (queuedOrderId != null) {
+                return intake(queuedOrderId, customerId, IntakeStatusEnum.QUEUED, null);
+            }
+        }
+
+        queuedOrders.put(orderId, customerId);
+
+        try {
+            intakeLog.append(objectMapper.writeValueAsString(new IntakeEntry(orderId, customerId, idempotencyKey,
+                    beerOrderDto)));
+        } catch (IOException e) {
+            queuedOrders.remove(orderId);
+
+            if (idempotencyKey != null) {
+                queuedKeys.remove(queuedKey(customerId, idempotencyKey), orderId);
+            }
+            throw new UncheckedIOException("Beer order could not be queued", e);
+        }
+
+        log.debug("Queued Beer Order: " + orderId);
+
+        return intake(orderId, customerId, IntakeStatusEnum.QUEUED, null);
+    }
+
+    public BeerOrderIntakeDto getIntake(UUID customerId, UUID orderId) {
+        BeerOrderIntakeDto outcome = outcomes.getIfPresent(orderId);
+
+        if (outcome != null && outcome.getCustomerId().equals(customerId)) {
+            return outcome;
+        }
+
+        if (customerId.equals(queuedOrders.get(orderId))) {
+            return intake(orderId, customerId, IntakeStatusEnum.QUEUED, null);
+        }
+
+        // placed before the outcome was forgotten
+        if (beerOrderRepository.existsByIdAndCustomerId(orderId, customerId)) {
+            return intake(orderId, customerId, IntakeStatusEnum.PLACED, null);
+        }
+        throw new BeerOrderIntakeNotFoundException("Beer Order Not Found");
+    }
+
+    public int getQueued() {
+        return queuedOrders.size();
+    }
+
+    /**
+     * Places the queued orders in batches until the queue is empty
+     */
+    @Scheduled(fixedDelayString = "${sfg.brewery.order.intake.poll-interval:100}")
+    public synchronized void placeQueuedOrders() {
+        try {
+            BeerOrderIntakeLog.Batch batch;
+
+            do {
+                batch = intakeLog.read(consumed, orderIntakeProperties.getBatchSize());
+
+                List<IntakeEntry> entries = readEntries(batch);
+
+                if (!entries.isEmpty()) {
+                    placeBatch(entries);
+                }
+
+                if (!batch.getEnd().equals(consumed)) {
+                    intakeLog.commit(batch.getEnd());
+                    consumed = batch.getEnd();
+                }
+            } while (batch.getRecords().size() == orderIntakeProperties.getBatchSize());
+        } catch (IOException e) {
+            log.error("Error reading queued beer orders", e);
+        }
+    }
+
+    private void placeBatch(List<IntakeEntry> entries) {
+        List<BeerOrderIntakeDto> batchOutcomes;
+
+        try {
+            batchOutcomes = transactionTemplate.execute(status -> placeEntries(entries));
+        } catch (RuntimeException e) {
+            log.warn("Error placing " + entries.size() + " queued beer orders together, placing them one by one", e);
+
+            batchOutcomes = new ArrayList<>(entries.size());
+
+            for (IntakeEntry entry : entries) {
+                try {
+                    batchOutcomes.addAll(transactionTemplate.execute(status -> placeEntries(List.of(entry))));
+                } catch (RuntimeException entryException) {
+                    log.error("Error placing queued beer order " + entry.getOrderId(), entryException);
+
+                    batchOutcomes.add(intake(entry.getOrderId(), entry.getCustomerId(), IntakeStatusEnum.REJECTED,
+                            entryException.getMessage()));
+                }
+            }
+        }
+
+        // outcome first, so the order is never neither queued nor known
+        for (int i = 0; i < entries.size(); i++) {
+            IntakeEntry entry = entries.get(i);
+
+            outcomes.put(entry.getOrderId(), batchOutcomes.get(i));
+            queuedOrders.remove(entry.getOrderId());
+
+            if (entry.getIdempotencyKey() != null) {
+                queuedKeys.remove(queuedKey(entry.getCustomerId(), entry.getIdempotencyKey()), entry.getOrderId());
+            }
+        }
+    }
+
+    private List<BeerOrderIntakeDto> placeEntries(List<IntakeEntry> entries) {
+        Set<UUID> placedOrderIds = new HashSet<>(beerOrderRepository.findExistingIds(entries.stream()
+                .map(IntakeEntry::getOrderId)
+                .collect(Collectors.toList())));
+
+        Map<UUID, Customer> customers = customerRepository.findAllById(entries.stream()
+                .map(IntakeEntry::getCustomerId)
+                .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Customer::getId, Function.identity()));
+
+        Map<UUID, Beer> beers = beerRepository.findAllById(entries.stream()
+                .flatMap(entry -> entry.getBeerOrder().getBeerOrderLines().stream())
+                .map(BeerOrderLineDto::getBeerId)
+                .collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Beer::getId, Function.identity()));
+
+        Map<String, UUID> placedKeys = findPlacedKeys(entries, customers.keySet());
+
+        return entries.stream()
+                .map(entry -> placeEntry(entry, placedOrderIds, customers, beers, placedKeys))
+                .collect(Collectors.toList());
+    }
+
+    private BeerOrderIntakeDto placeEntry(IntakeEntry entry, Set<UUID> placedOrderIds, Map<UUID, Customer> customers,
+                                          Map<UUID, Beer> beers, Map<String, UUID> placedKeys) {
+        if (placedOrderIds.contains(entry.getOrderId())) {
+            // replayed after a restart
+            return intake(entry.getOrderId(), entry.getCustomerId(), IntakeStatusEnum.PLACED, null);
+        }
+
+        Customer customer = customers.get(entry.getCustomerId());
+
+        if (customer == null) {
+            return intake(entry.getOrderId(), entry.getCustomerId(), IntakeStatusEnum.REJECTED, "Customer Not Found");
+        }
+
+        String queuedKey = entry.getIdempotencyKey() == null ? null
+                : queuedKey(entry.getCustomerId(), entry.getIdempotencyKey());
+
+        if (queuedKey != null && placedKeys.containsKey(queuedKey)) {
+            return intake(placedKeys.get(queuedKey), entry.getCustomerId(), IntakeStatusEnum.PLACED, null);
+        }
+
+        for (BeerOrderLineDto beerOrderLineDto : entry.getBeerOrder().getBeerOrderLines()) {
+            if (!beers.containsKey(beerOrderLineDto.getBeerId())) {
+                return intake(entry.getOrderId(), entry.getCustomerId(), IntakeStatusEnum.REJECTED,
+                        "Beer ID not found: " + beerOrderLineDto.getBeerId());
+            }
+        }
+
+        BeerOrder beerOrder = beerOrderMapper.dtoToBeerOrder(entry.getBeerOrder());
+        beerOrder.setId(entry.getOrderId()); //the id the order was accepted with
+        beerOrder.setVersion(null);
+        beerOrder.setCustomer(customer);
+        beerOrder.setOrderStatus(OrderStatusEnum.NEW);
+        beerOrder.setIdempotencyKey(entry.getIdempotencyKey());
+
+        beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
+            beerOrderLine.setBeer(beers.get(beerOrderLine.getBeer().getId()));
+            beerOrderLine.setBeerOrder(beerOrder);
+        });
+
+        BeerOrder savedBeerOrder = beerOrderRepository.save(beerOrder);
+
+        if (queuedKey != null) {
+            placedKeys.put(queuedKey, savedBeerOrder.getId());
+        }
+
+        //allocated once the batch has been committed
+        publisher.publishEvent(new BeerOrderPlacedEvent(savedBeerOrder));
+
+        return intake(savedBeerOrder.getId(), entry.getCustomerId(), IntakeStatusEnum.PLACED, null);
+    }
+
+    /**
+     * Orders already placed with the idempotency keys of the entries, by queued key
+     */
+    private Map<String, UUID> findPlacedKeys(List<IntakeEntry> entries, Set<UUID> customerIds) {
+        Map<String, UUID> placedKeys = new HashMap<>();
+        Set<String> idempotencyKeys = entries.stream()
+                .map(IntakeEntry::getIdempotencyKey)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        if (!idempotencyKeys.isEmpty() && !customerIds.isEmpty()) {
+            beerOrderRepository.findIdempotencyKeys(customerIds, idempotencyKeys).forEach(key -> placedKeys
+                    .put(queuedKey(key.getCustomerId(), key.getIdempotencyKey()), key.getId()));
+        }
+        return placedKeys;
+    }
+
+    private void validate(BeerOrderDto beerOrderDto) {
+        if (beerOrderDto.getBeerOrderLines() == null || beerOrderDto.getBeerOrderLines().isEmpty()) {
+            throw new BeerOrderInvalidException("Beer order without lines");
+        }
+
+        for (BeerOrderLineDto beerOrderLineDto : beerOrderDto.getBeerOrderLines()) {
+            if (beerOrderLineDto.getBeerId() == null) {
+                throw new BeerOrderInvalidException("Beer order line without beer");
+            }
+        }
+    }
+
+    private List<IntakeEntry> readEntries(BeerOrderIntakeLog.Batch batch) {
+        List<IntakeEntry> entries = new ArrayList<>(batch.getRecords().size());
+
+        for (String record : batch.getRecords()) {
+            try {
+                entries.add(objectMapper.readValue(record, IntakeEntry.class));
+            } catch (IOException e) {
+                log.error("Skipping unreadable queued beer order: " + record, e);
+            }
+        }
+        return entries;
+    }
+
+    private static String queuedKey(UUID customerId, String idempotencyKey) {
+        return customerId + "/" + idempotencyKey;
+    }
+
+    private static BeerOrderIntakeDto intake(UUID orderId, UUID customerId, IntakeStatusEnum status, String error) {
+        return BeerOrderIntakeDto.builder()
+                .orderId(orderId)
+                .customerId(customerId)
+                .status(status)
+                .error(error)
+                .build();
+    }
+
+    /**
+     * An order in the intake log
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class IntakeEntry {
+        private UUID orderId;
+        private UUID customerId;
+        private String idempotencyKey;
+        private BeerOrderDto beerOrder;
+    }
+}
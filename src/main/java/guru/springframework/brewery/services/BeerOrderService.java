@@ -17,18 +17,49 @@
 
 package guru.springframework.brewery.services;
 
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
 import guru.springframework.brewery.web.model.BeerOrderDto;
 import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
 import org.springframework.data.domain.Pageable;
 
+import java.util.Optional;
 import java.util.UUID;
 
 public interface BeerOrderService {
     BeerOrderPagedList listOrders(UUID customerId, Pageable pageable);
 
+    /**
+     * Page of the orders of the customer, oldest first, starting after the cursor handed out with the previous page
+     * or at the first order without one. The orders are not counted.
+     */
+    BeerOrderCursorPage listOrders(UUID customerId, String cursor, int pageSize);
+
     BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto);
 
+    BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto, ReservationModeEnum reservationMode);
+
+    /**
+     * Places the order unless the customer already placed one with the same idempotency key, in which case the
+     * order placed first is returned, or the order is rejected if it has other lines. Without a key the customer ref of
+     * the order is the key if so configured.
+     */
+    BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto, ReservationModeEnum reservationMode,
+                            String idempotencyKey);
+
+    /**
+     * The order the customer already placed with the idempotency key of the request, empty if there is none yet.
+     * Fails like placing the order would if the order placed with the key has other lines.
+     */
+    Optional<BeerOrderDto> findPlacedOrder(UUID customerId, BeerOrderDto beerOrderDto, String idempotencyKey);
+
     BeerOrderDto getOrderById(UUID customerId, UUID orderId);
 
+    /**
+     * Revision of the order, the version of the order plus the versions of its lines, read without loading the
+     * order. Empty if the customer has no such order.
+     */
+    Optional<Long> findOrderRevision(UUID customerId, UUID orderId);
+
     void pickupOrder(UUID customerId, UUID orderId);
 }
@@ -19,23 +19,57 @@ package guru.springframework.brewery.services;
 
 
 import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrderLine;
 import guru.springframework.brewery.domain.BeerOrder;
 import guru.springframework.brewery.domain.Customer;
 import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.events.BeerOrderPlacedEvent;
+import guru.springframework.brewery.events.BeerOrderStatusChangeEvent;
+import guru.springframework.brewery.repositories.BeerOrderLineRepository;
+import guru.springframework.brewery.repositories.BeerOrderLineRow;
 import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository.BeerOrderKey;
+import guru.springframework.brewery.repositories.BeerOrderRow;
 import guru.springframework.brewery.repositories.BeerRepository;
 import guru.springframework.brewery.repositories.CustomerRepository;
 import guru.springframework.brewery.web.mappers.BeerOrderMapper;
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
 import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
 import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -43,42 +77,159 @@ import java.util.stream.Collectors;
 public class BeerOrderServiceImpl implements BeerOrderService {
 
     private final BeerOrderRepository beerOrderRepository;
+    private final BeerOrderLineRepository beerOrderLineRepository;
     private final CustomerRepository customerRepository;
     private final BeerRepository beerRepository;
     private final BeerOrderMapper beerOrderMapper;
+    private final ApplicationEventPublisher publisher;
+    private final Optional<InventoryLedger> inventoryLedger;
+    private final BeerOrderAllocationMetrics allocationMetrics;
+
+    // ids of beers known to exist, their orders reference them without loading them
+    private final Cache<UUID, Boolean> knownBeerIds;
+
+    // opt-in, without an idempotency key of its own an order is keyed on its customer ref
+    private final boolean customerRefIdempotencyKey;
+
+    // recently placed orders by idempotency key, a repeated request is answered without touching the database
+    // until the order expires
+    private final Cache<PlacedOrderKey, BeerOrderDto> placedOrders;
 
     public BeerOrderServiceImpl(BeerOrderRepository beerOrderRepository,
+                                BeerOrderLineRepository beerOrderLineRepository,
                                 CustomerRepository customerRepository,
                                 BeerRepository beerRepository,
-                                BeerOrderMapper beerOrderMapper) {
+                                BeerOrderMapper beerOrderMapper,
+                                ApplicationEventPublisher publisher,
+                                Optional<InventoryLedger> inventoryLedger,
+                                BeerOrderAllocationMetrics allocationMetrics,
+                                @Value("${sfg.brewery.order.known-beer-cache-size:1000}") long knownBeerCacheSize,
+                                @Value("${sfg.brewery.order.customer-ref-idempotency-key:false}") boolean customerRefIdempotencyKey,
+                                @Value("${sfg.brewery.order.placed-order-cache-size:10000}") long placedOrderCacheSize,
+                                @Value("${sfg.brewery.order.placed-order-cache-ttl:60000}") long placedOrderCacheTtl) {
         this.beerOrderRepository = beerOrderRepository;
+        this.beerOrderLineRepository = beerOrderLineRepository;
         this.customerRepository = customerRepository;
         this.beerRepository = beerRepository;
         this.beerOrderMapper = beerOrderMapper;
+        this.publisher = publisher;
+        this.inventoryLedger = inventoryLedger;
+        this.allocationMetrics = allocationMetrics;
+        this.knownBeerIds = Caffeine.newBuilder()
+                .maximumSize(knownBeerCacheSize)
+                .build();
+        this.customerRefIdempotencyKey = customerRefIdempotencyKey;
+        this.placedOrders = Caffeine.newBuilder()
+                .maximumSize(placedOrderCacheSize)
+                .expireAfterWrite(placedOrderCacheTtl, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     @Override
+    @Transactional(readOnly = true)
     public BeerOrderPagedList listOrders(UUID customerId, Pageable pageable) {
-        Optional<Customer> customerOptional = customerRepository.findById(customerId);
+        if (!customerRepository.existsById(customerId)) {
+            return null;
+        }
 
-        if (customerOptional.isPresent()) {
-            Page<BeerOrder> beerOrderPage =
-                    beerOrderRepository.findAllByCustomer(customerOptional.get(), pageable);
+        // pages over the ids alone, paging over the orders joined to their lines would page in memory
+        Page<UUID> beerOrderIdPage = beerOrderRepository.findIdsByCustomerId(customerId, pageable);
 
-            return new BeerOrderPagedList(beerOrderPage
-                    .stream()
-                    .map(beerOrderMapper::beerOrderToDto)
-                    .collect(Collectors.toList()), PageRequest.of(
-                    beerOrderPage.getPageable().getPageNumber(),
-                    beerOrderPage.getPageable().getPageSize()),
-                    beerOrderPage.getTotalElements());
-        } else {
+        return new BeerOrderPagedList(findOrdersWithLines(beerOrderIdPage.getContent()), PageRequest.of(
+                beerOrderIdPage.getPageable().getPageNumber(),
+                beerOrderIdPage.getPageable().getPageSize()),
+                beerOrderIdPage.getTotalElements());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BeerOrderCursorPage listOrders(UUID customerId, String cursor, int pageSize) {
+        BeerOrderCursor after = cursor == null || cursor.isEmpty() ? null : BeerOrderCursor.decode(cursor);
+
+        if (!customerRepository.existsById(customerId)) {
             return null;
         }
+
+        // one more key than the page tells whether there is a next page, without counting
+        Pageable keysPage = PageRequest.of(0, pageSize + 1);
+        List<BeerOrderKey> keys = after == null
+                ? beerOrderRepository.findKeysByCustomerId(customerId, keysPage)
+                : beerOrderRepository.findKeysByCustomerIdAfter(customerId, after.getCreatedDate(), after.getId(),
+                        keysPage);
+
+        String nextCursor = null;
+        if (keys.size() > pageSize) {
+            keys = keys.subList(0, pageSize);
+            nextCursor = BeerOrderCursor.of(keys.get(pageSize - 1)).encode();
+        }
+
+        return BeerOrderCursorPage.builder()
+                .content(findOrdersWithLines(keys.stream().map(BeerOrderKey::getId).collect(Collectors.toList())))
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    /**
+     * Reads the given orders and their lines as rows, in the order of the ids
+     */
+    private List<BeerOrderDto> findOrdersWithLines(List<UUID> beerOrderIds) {
+        if (beerOrderIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<UUID, BeerOrderRow> beerOrders = beerOrderRepository.findRowsByIdIn(beerOrderIds).stream()
+                .collect(Collectors.toMap(BeerOrderRow::getId, Function.identity()));
+        Map<UUID, List<BeerOrderLineDto>> beerOrderLines = findLines(beerOrderIds);
+
+        return beerOrderIds.stream()
+                .map(beerOrders::get)
+                // deleted since the ids were read
+                .filter(Objects::nonNull)
+                .map(beerOrder -> toDto(beerOrder, beerOrderLines))
+                .collect(Collectors.toList());
+    }
+
+    private Map<UUID, List<BeerOrderLineDto>> findLines(Collection<UUID> beerOrderIds) {
+        return beerOrderLineRepository.findRowsByBeerOrderIdIn(beerOrderIds).stream()
+                .collect(Collectors.groupingBy(BeerOrderLineRow::getBeerOrderId,
+                        Collectors.mapping(beerOrderMapper::beerOrderLineRowToDto, Collectors.toList())));
+    }
+
+    private BeerOrderDto toDto(BeerOrderRow beerOrder, Map<UUID, List<BeerOrderLineDto>> beerOrderLines) {
+        BeerOrderDto beerOrderDto = beerOrderMapper.beerOrderRowToDto(beerOrder);
+        beerOrderDto.setBeerOrderLines(beerOrderLines.getOrDefault(beerOrder.getId(), Collections.emptyList()));
+        return beerOrderDto;
     }
 
     @Override
+    @Transactional
     public BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto) {
+        return placeOrder(customerId, beerOrderDto, ReservationModeEnum.NONE);
+    }
+
+    @Override
+    @Transactional
+    public BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto, ReservationModeEnum reservationMode) {
+        return placeOrder(customerId, beerOrderDto, reservationMode, null);
+    }
+
+    @Override
+    @Transactional
+    public BeerOrderDto placeOrder(UUID customerId, BeerOrderDto beerOrderDto, ReservationModeEnum reservationMode,
+                                   String idempotencyKey) {
+        idempotencyKey = idempotencyKey(beerOrderDto, idempotencyKey);
+
+        PlacedOrderKey placedOrderKey = idempotencyKey == null ? null : new PlacedOrderKey(customerId, idempotencyKey);
+
+        if (placedOrderKey != null) {
+            BeerOrderDto placedBeerOrder = findPlacedOrder(placedOrderKey, beerOrderDto);
+
+            if (placedBeerOrder != null) {
+                log.debug("Beer Order already placed: " + placedBeerOrder.getId());
+                return placedBeerOrder;
+            }
+        }
+
         Optional<Customer> customerOptional = customerRepository.findById(customerId);
 
         if (customerOptional.isPresent()) {
@@ -86,32 +237,229 @@ public class BeerOrderServiceImpl implements BeerOrderService {
             beerOrder.setId(null); //should not be set by outside client
             beerOrder.setCustomer(customerOptional.get());
             beerOrder.setOrderStatus(OrderStatusEnum.NEW);
+            beerOrder.setIdempotencyKey(idempotencyKey);
 
             //update beers from db, go boom if not found
-            beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
-                Optional<Beer> beerOptional = beerRepository.findById(beerOrderLine.getBeer().getId());
+            Map<UUID, Beer> beers = findBeers(beerOrder);
 
-                if(beerOptional.isPresent()){
-                    beerOrderLine.setBeer(beerOptional.get());
-                } else {
-                    //todo add exception type
-                    throw new RuntimeException("Beer ID not found: " + beerOrderLine.getBeer().getId());
-                }
+            beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
+                beerOrderLine.setBeer(beers.get(beerOrderLine.getBeer().getId()));
+                beerOrderLine.setBeerOrder(beerOrder);
             });
 
-            BeerOrder savedBeerOrder = beerOrderRepository.save(beerOrder);
+            if (reservationMode != ReservationModeEnum.NONE) {
+                reserveStock(beerOrder, reservationMode);
+            }
+
+            BeerOrder savedBeerOrder = (placedOrderKey == null) ? beerOrderRepository.save(beerOrder)
+                    : saveOnce(beerOrder, placedOrderKey);
 
             log.debug("Saved Beer Order: " + beerOrder.getId());
 
-            return beerOrderMapper.beerOrderToDto(savedBeerOrder);
+            if (savedBeerOrder.getOrderStatus() == OrderStatusEnum.NEW) {
+                //allocated once the transaction has been committed
+                publisher.publishEvent(new BeerOrderPlacedEvent(savedBeerOrder));
+            } else if (savedBeerOrder.getOrderStatus() == OrderStatusEnum.READY) {
+                // reserved in full, the interceptor only sees orders which change status after they were inserted
+                afterCommit(() -> {
+                    publisher.publishEvent(new BeerOrderStatusChangeEvent(savedBeerOrder, OrderStatusEnum.NEW));
+                    allocationMetrics.orderReady(savedBeerOrder);
+                });
+            }
+
+            BeerOrderDto savedBeerOrderDto = beerOrderMapper.beerOrderToDto(savedBeerOrder);
+
+            if (placedOrderKey != null) {
+                // remembered once committed
+                afterCommit(() -> placedOrders.put(placedOrderKey, savedBeerOrderDto));
+            }
+            return savedBeerOrderDto;
         }
         //todo add exception type
         throw new RuntimeException("Customer Not Found");
     }
 
     @Override
+    // a reused key fails the lookup, not the transaction of an import it takes part in
+    @Transactional(readOnly = true, noRollbackFor = BeerOrderKeyReusedException.class)
+    public Optional<BeerOrderDto> findPlacedOrder(UUID customerId, BeerOrderDto beerOrderDto, String idempotencyKey) {
+        idempotencyKey = idempotencyKey(beerOrderDto, idempotencyKey);
+
+        return idempotencyKey == null ? Optional.empty()
+                : Optional.ofNullable(findPlacedOrder(new PlacedOrderKey(customerId, idempotencyKey), beerOrderDto));
+    }
+
+    private String idempotencyKey(BeerOrderDto beerOrderDto, String idempotencyKey) {
+        return (idempotencyKey == null && customerRefIdempotencyKey) ? beerOrderDto.getCustomerRef() : idempotencyKey;
+    }
+
+    /**
+     * The order placed with the key, from the recently placed orders or else looked up by the unique key. The key
+     * may only be used again for the same order.
+     */
+    private BeerOrderDto findPlacedOrder(PlacedOrderKey placedOrderKey, BeerOrderDto beerOrderDto) {
+        BeerOrderDto placedBeerOrder = placedOrders.getIfPresent(placedOrderKey);
+
+        if (placedBeerOrder == null) {
+            placedBeerOrder = beerOrderRepository.findByCustomerIdAndIdempotencyKey(placedOrderKey.getCustomerId(),
+                    placedOrderKey.getIdempotencyKey())
+                    .map(beerOrderMapper::beerOrderToDto)
+                    .orElse(null);
+
+            if (placedBeerOrder != null) {
+                placedOrders.put(placedOrderKey, placedBeerOrder);
+            }
+        }
+
+        if (placedBeerOrder != null && (!orderQuantities(placedBeerOrder).equals(orderQuantities(beerOrderDto))
+                || !Objects.equals(placedBeerOrder.getCustomerRef(), beerOrderDto.getCustomerRef()))) {
+            throw new BeerOrderKeyReusedException("Idempotency key " + placedOrderKey.getIdempotencyKey()
+                    + " was already used for another Beer Order");
+        }
+        return placedBeerOrder;
+    }
+
+    /**
+     * Quantity ordered per beer, the lines of a repeated request may come in another order or be split differently
+     */
+    private static Map<UUID, Integer> orderQuantities(BeerOrderDto beerOrderDto) {
+        Map<UUID, Integer> orderQuantities = new HashMap<>();
+
+        if (beerOrderDto.getBeerOrderLines() != null) {
+            beerOrderDto.getBeerOrderLines().forEach(beerOrderLine -> orderQuantities.merge(beerOrderLine.getBeerId(),
+                    (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity(), Integer::sum));
+        }
+        return orderQuantities;
+    }
+
+    /**
+     * Inserts the order right away, so a request placing the same order concurrently fails on the unique key here
+     */
+    private BeerOrder saveOnce(BeerOrder beerOrder, PlacedOrderKey placedOrderKey) {
+        try {
+            return beerOrderRepository.saveAndFlush(beerOrder);
+        } catch (DataIntegrityViolationException e) {
+            if (violatesIdempotencyKey(e)) {
+                throw new BeerOrderConflictException("Beer Order " + placedOrderKey.getIdempotencyKey()
+                        + " is already being placed");
+            }
+            throw e;
+        }
+    }
+
+    // databases report the name of the unique key in their own case, H2 adds the index name and table to it
+    private static boolean violatesIdempotencyKey(DataIntegrityViolationException e) {
+        return e.getCause() instanceof ConstraintViolationException
+                && ((ConstraintViolationException) e.getCause()).getConstraintName() != null
+                && ((ConstraintViolationException) e.getCause()).getConstraintName().toLowerCase(Locale.ROOT)
+                .contains(BeerOrder.IDEMPOTENCY_KEY_CONSTRAINT);
+    }
+
+    /**
+     * Runs the action once the transaction has been committed, or right away outside of a transaction
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Resolves the beers of all lines with a single query, beers already known to exist are only referenced
+     */
+    private Map<UUID, Beer> findBeers(BeerOrder beerOrder) {
+        Map<UUID, Beer> beers = new HashMap<>();
+        Set<UUID> unknownBeerIds = new HashSet<>();
+
+        beerOrder.getBeerOrderLines().forEach(beerOrderLine -> {
+            UUID beerId = beerOrderLine.getBeer().getId();
+
+            if (beerId == null) {
+                throw new BeerOrderInvalidException("Beer order line without beer");
+            }
+
+            if (knownBeerIds.getIfPresent(beerId) != null) {
+                beers.put(beerId, beerRepository.getOne(beerId));
+            } else {
+                unknownBeerIds.add(beerId);
+            }
+        });
+
+        if (!unknownBeerIds.isEmpty()) {
+            beerRepository.findAllById(unknownBeerIds).forEach(beer -> {
+                beers.put(beer.getId(), beer);
+                knownBeerIds.put(beer.getId(), Boolean.TRUE);
+            });
+
+            unknownBeerIds.removeAll(beers.keySet());
+
+            if (!unknownBeerIds.isEmpty()) {
+                throw new BeerOrderInvalidException("Beer ID not found: " + unknownBeerIds.iterator().next());
+            }
+        }
+        return beers;
+    }
+
+    /**
+     * Takes the stock of the lines from the inventory ledger on behalf of the placing transaction. A rolled back
+     * order returns it, a committed one is written to the inventory rows by the next flush of the ledger.
+     */
+    private void reserveStock(BeerOrder beerOrder, ReservationModeEnum reservationMode) {
+        InventoryLedger.Reservation reservation = inventoryLedger
+                .orElseThrow(() -> new BeerOrderInvalidException("Stock reservation is not enabled, place the order " +
+                        "without reservation"))
+                .reserve();
+        boolean reservedInFull = true;
+
+        try {
+            for (BeerOrderLine beerOrderLine : beerOrder.getBeerOrderLines()) {
+                int orderQuantity = (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity();
+                int reserved = reservation.take(beerOrderLine.getBeer().getId(), orderQuantity);
+
+                beerOrderLine.setQuantityAllocated(reserved);
+                reservedInFull &= reserved == orderQuantity;
+            }
+        } finally {
+            reservation.complete();
+        }
+
+        if (reservedInFull) {
+            beerOrder.setOrderStatus(OrderStatusEnum.READY);
+        } else if (reservationMode == ReservationModeEnum.ALL_OR_NOTHING) {
+            // rolls back the transaction, which returns the stock taken so far
+            throw new BeerOrderRejectedException("Not enough stock on hand for order " + beerOrder.getCustomerRef());
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public BeerOrderDto getOrderById(UUID customerId, UUID orderId) {
-        return beerOrderMapper.beerOrderToDto(getOrder(customerId, orderId));
+        // an order of another customer is not found either, the customer is only looked up to tell why
+        Optional<BeerOrderRow> beerOrderOptional = beerOrderRepository.findRowByIdAndCustomerId(orderId, customerId);
+
+        if (beerOrderOptional.isPresent()) {
+            return toDto(beerOrderOptional.get(), findLines(Collections.singletonList(orderId)));
+        }
+        if (customerRepository.existsById(customerId)) {
+            throw new RuntimeException("Beer Order Not Found");
+        }
+        throw new RuntimeException("Customer Not Found");
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<Long> findOrderRevision(UUID customerId, UUID orderId) {
+        return beerOrderRepository.findRevisionByIdAndCustomerId(orderId, customerId);
     }
 
     @Override
@@ -141,4 +489,12 @@ public class BeerOrderServiceImpl implements BeerOrderService {
         }
         throw new RuntimeException("Customer Not Found");
     }
+
+    @Getter
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class PlacedOrderKey {
+        private final UUID customerId;
+        private final String idempotencyKey;
+    }
 }
@@ -22,10 +22,16 @@ import guru.springframework.brewery.web.model.BeerPagedList;
 import guru.springframework.brewery.web.model.BeerStyleEnum;
 import org.springframework.data.domain.PageRequest;
 
+import java.util.Optional;
 import java.util.UUID;
 
 public interface BeerService {
     BeerPagedList listBeers(String beerName, BeerStyleEnum beerStyle, PageRequest pageRequest);
 
     BeerDto findBeerById(UUID beerId);
+
+    /**
+     * Version of the beer, read without loading the beer, empty if there is no such beer.
+     */
+    Optional<Long> findBeerVersion(UUID beerId);
 }
@@ -17,55 +17,97 @@
 
 package guru.springframework.brewery.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.events.BeerSavedEvent;
 import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.BeerRow;
 import guru.springframework.brewery.web.mappers.BeerMapper;
 import guru.springframework.brewery.web.model.BeerDto;
 import guru.springframework.brewery.web.model.BeerPagedList;
 import guru.springframework.brewery.web.model.BeerStyleEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.util.StringUtils;
 
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * Answers beers and pages of beers from the catalog cache. A miss is read in the read-only transaction of the
+ * repository, a hit does not open a transaction at all.
+ *
+ * A saved beer evicts itself and every page once committed, since any page can gain, lose or move the beer. A reader
+ * which loaded the beer before the commit can still put it back, that is bounded by the time to live.
+ */
 @Service
 public class BeerServiceImpl implements BeerService {
 
     private final BeerRepository beerRepository;
     private final BeerMapper beerMapper;
+    private final Cache<UUID, BeerDto> beers;
+    private final Cache<BeerPageKey, BeerPagedList> beerPages;
 
-    public BeerServiceImpl(BeerRepository beerRepository, BeerMapper beerMapper) {
+    public BeerServiceImpl(BeerRepository beerRepository, BeerMapper beerMapper, MeterRegistry meterRegistry,
+                           @Value("${sfg.brewery.beer.catalog-cache-size:1000}") long catalogCacheSize,
+                           @Value("${sfg.brewery.beer.catalog-cache-ttl:300000}") long catalogCacheTtl) {
         this.beerRepository = beerRepository;
         this.beerMapper = beerMapper;
+        // hits, misses and evictions are at /actuator/metrics/cache.gets and cache.evictions
+        this.beers = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(catalogCacheSize)
+                .expireAfterWrite(catalogCacheTtl, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .<UUID, BeerDto>build(), "beer.catalog.beers");
+        this.beerPages = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(catalogCacheSize)
+                .expireAfterWrite(catalogCacheTtl, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .<BeerPageKey, BeerPagedList>build(), "beer.catalog.pages");
     }
 
     @Override
     public BeerPagedList listBeers(String beerName, BeerStyleEnum beerStyle, PageRequest pageRequest) {
+        // an empty name is no filter, so it shares the page of no name
+        return beerPages.get(new BeerPageKey(StringUtils.isEmpty(beerName) ? null : beerName, beerStyle,
+                pageRequest.getPageNumber(), pageRequest.getPageSize()),
+                beerPageKey -> loadBeers(beerName, beerStyle, pageRequest));
+    }
+
+    // the rows are mapped straight to the answer, no entity is loaded or checked for changes
+    private BeerPagedList loadBeers(String beerName, BeerStyleEnum beerStyle, PageRequest pageRequest) {
 
         BeerPagedList beerPagedList;
-        Page<Beer> beerPage;
+        Page<BeerRow> beerPage;
 
         if (!StringUtils.isEmpty(beerName) && !StringUtils.isEmpty(beerStyle)) {
             //search both
-            beerPage = beerRepository.findAllByBeerNameAndBeerStyle(beerName, beerStyle, pageRequest);
+            beerPage = beerRepository.findRowsByBeerNameAndBeerStyle(beerName, beerStyle, pageRequest);
         } else if (!StringUtils.isEmpty(beerName) && StringUtils.isEmpty(beerStyle)) {
             //search beer name
-            beerPage = beerRepository.findAllByBeerName(beerName, pageRequest);
+            beerPage = beerRepository.findRowsByBeerName(beerName, pageRequest);
         } else if (StringUtils.isEmpty(beerName) && !StringUtils.isEmpty(beerStyle)) {
             //search beer style
-            beerPage = beerRepository.findAllByBeerStyle(beerStyle, pageRequest);
+            beerPage = beerRepository.findRowsByBeerStyle(beerStyle, pageRequest);
         } else {
-            beerPage = beerRepository.findAll(pageRequest);
+            beerPage = beerRepository.findAllRows(pageRequest);
         }
 
         beerPagedList = new BeerPagedList(beerPage
                 .getContent()
                 .stream()
-                .map(beerMapper::beerToBeerDto)
+                .map(beerMapper::beerRowToBeerDto)
                 .collect(Collectors.toList()),
                 PageRequest
                         .of(beerPage.getPageable().getPageNumber(),
@@ -76,7 +118,13 @@ public class BeerServiceImpl implements BeerService {
 
     @Override
     public BeerDto findBeerById(UUID beerId) {
-        Optional<guru.springframework.brewery.domain.Beer> beerOptional = beerRepository.findById(beerId);
+        return beers.get(beerId, this::loadBeer);
+    }
+
+    // loading the entity by id costs less than a projection query, which is parsed and bound on every call, and
+    // in a read-only transaction no snapshot of it is kept
+    private BeerDto loadBeer(UUID beerId) {
+        Optional<Beer> beerOptional = beerRepository.findById(beerId);
 
         if (beerOptional.isPresent()) {
             return beerMapper.beerToBeerDto(beerOptional.get());
@@ -85,4 +133,31 @@ public class BeerServiceImpl implements BeerService {
             throw new RuntimeException("Not Found");
         }
     }
+
+    @Override
+    public Optional<Long> findBeerVersion(UUID beerId) {
+        BeerDto beerDto = beers.getIfPresent(beerId);
+
+        if (beerDto != null) {
+            // a beer without a version is at version 0, as in its entity tag
+            return Optional.of(beerDto.getVersion() == null ? 0L : beerDto.getVersion().longValue());
+        }
+        return beerRepository.findVersionById(beerId);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBeerSaved(BeerSavedEvent event) {
+        beers.invalidate(event.getBeer().getId());
+        beerPages.invalidateAll();
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class BeerPageKey {
+        private final String beerName;
+        private final BeerStyleEnum beerStyle;
+        private final int pageNumber;
+        private final int pageSize;
+    }
 }
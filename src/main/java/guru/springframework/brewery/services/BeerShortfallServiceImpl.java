@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerOrderLineRepository;
+import guru.springframework.brewery.web.model.BeerShortfallDto;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Computes the shortfall with a single aggregate query, the cost grows with the number of beers and not with the
+ * number of orders loaded into memory
+ */
+@Service
+public class BeerShortfallServiceImpl implements BeerShortfallService {
+
+    private final BeerOrderLineRepository beerOrderLineRepository;
+
+    public BeerShortfallServiceImpl(BeerOrderLineRepository beerOrderLineRepository) {
+        this.beerOrderLineRepository = beerOrderLineRepository;
+    }
+
+    @Override
+    public List<BeerShortfallDto> listShortfalls() {
+        return beerOrderLineRepository.findOpenDemandByBeer(OrderStatusEnum.NEW).stream()
+                .map(beerDemand -> BeerShortfallDto.builder()
+                        .beerId(beerDemand.getBeerId())
+                        .beerName(beerDemand.getBeerName())
+                        .upc(beerDemand.getUpc())
+                        .quantityOpen(beerDemand.getQuantityOpen())
+                        .quantityOnHand(beerDemand.getQuantityOnHand())
+                        .shortfall(Math.max(0, beerDemand.getQuantityOpen() - beerDemand.getQuantityOnHand()))
+                        .blockedOrders(beerDemand.getBlockedOrders())
+                        .build())
+                .sorted(Comparator.comparingLong(BeerShortfallDto::getShortfall)
+                        .thenComparingLong(BeerShortfallDto::getQuantityOpen)
+                        .reversed())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Compacts the BeerInventory table in the background.
+ *
+ * Allocation leaves used up rows with a quantity of 0 instead of deleting them as it goes. Compaction deletes them
+ * in bulk and merges the remaining rows of a beer into its oldest row, so allocation reads and updates as few rows
+ * as possible. Merging is protected by the row versions, a batch conflicting with allocation is skipped until the
+ * next compaction.
+ */
+@Slf4j
+@Service
+public class InventoryCompactionService {
+
+    private static final int BEERS_PER_TRANSACTION = 100;
+
+    private final BeerInventoryRepository beerInventoryRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final BeerOrderAllocationMetrics allocationMetrics;
+
+    public InventoryCompactionService(BeerInventoryRepository beerInventoryRepository,
+                                      TransactionTemplate transactionTemplate,
+                                      BeerOrderAllocationMetrics allocationMetrics) {
+        this.beerInventoryRepository = beerInventoryRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.allocationMetrics = allocationMetrics;
+    }
+
+    @Scheduled(fixedDelayString = "${sfg.brewery.allocation.compaction-interval:300000}",
+            initialDelayString = "${sfg.brewery.allocation.compaction-interval:300000}")
+    public void compact() {
+        Integer usedUp = transactionTemplate.execute(status -> beerInventoryRepository.deleteAllUsedUp());
+        int merged = 0;
+
+        List<UUID> beerIds = beerInventoryRepository.findBeerIdsWithSeveralRowsOnHand();
+
+        for (int i = 0; i < beerIds.size(); i += BEERS_PER_TRANSACTION) {
+            List<UUID> batch = beerIds.subList(i, Math.min(i + BEERS_PER_TRANSACTION, beerIds.size()));
+
+            try {
+                Integer mergedRows = transactionTemplate.execute(status -> mergeRows(batch));
+                merged += (mergedRows == null) ? 0 : mergedRows;
+            } catch (RuntimeException e) {
+                log.warn("Could not merge inventory rows of " + batch.size() + " beers, retrying with the next compaction", e);
+            }
+        }
+
+        int deleted = ((usedUp == null) ? 0 : usedUp) + merged;
+        allocationMetrics.inventoryRowsDeleted(deleted);
+
+        log.debug("Compacted inventory, deleted " + usedUp + " used up rows and merged " + merged + " rows");
+    }
+
+    private int mergeRows(List<UUID> beerIds) {
+        Map<UUID, List<BeerInventory>> inventoryByBeer = beerInventoryRepository.findAllOnHandByBeerIdIn(beerIds)
+                .stream()
+                .collect(Collectors.groupingBy(beerInventory -> beerInventory.getBeer().getId(), LinkedHashMap::new,
+                        Collectors.toList()));
+
+        List<BeerInventory> mergedRows = new ArrayList<>();
+
+        inventoryByBeer.values().forEach(beerInventoryList -> {
+            BeerInventory oldest = beerInventoryList.get(0);
+
+            beerInventoryList.subList(1, beerInventoryList.size()).forEach(beerInventory -> {
+                oldest.setQuantityOnHand(oldest.getQuantityOnHand() + beerInventory.getQuantityOnHand());
+                mergedRows.add(beerInventory);
+            });
+        });
+
+        beerInventoryRepository.deleteAll(mergedRows);
+        return mergedRows.size();
+    }
+}
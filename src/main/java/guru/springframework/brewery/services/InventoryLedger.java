@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * In memory ledger of the quantity on hand per beer.
+ *
+ * Allocation takes stock from the ledger instead of the BeerInventory rows. Quantities taken by committed
+ * transactions are written back to the rows in batches by a scheduled flush. The ledger is rebuilt from the table
+ * on startup and reconciled with it on a schedule and whenever inventory is added.
+ *
+ * Counters are guarded by a fixed set of striped locks, so threads working on different beers rarely contend.
+ * The ledger only knows about allocations made by this instance, it must not be enabled when several instances
+ * allocate against the same database.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "sfg.brewery.allocation.ledger.enabled", havingValue = "true")
+public class InventoryLedger {
+
+    private static final int STRIPE_COUNT = 64;
+
+    private final BeerInventoryRepository beerInventoryRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<UUID, Counter> counters = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[STRIPE_COUNT];
+
+    // flush and reconcile both compare the ledger with the rows, they must not interleave
+    private final ReentrantLock persistenceLock = new ReentrantLock();
+
+    public InventoryLedger(BeerInventoryRepository beerInventoryRepository, TransactionTemplate transactionTemplate) {
+        this.beerInventoryRepository = beerInventoryRepository;
+        this.transactionTemplate = transactionTemplate;
+
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Starts taking stock on behalf of the current transaction
+     */
+    public Reservation reserve() {
+        return new Reservation();
+    }
+
+    public int getQuantityOnHand(UUID beerId) {
+        Counter counter = counters.get(beerId);
+
+        if (counter == null) {
+            return 0;
+        }
+
+        synchronized (stripe(beerId)) {
+            return counter.onHand;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        log.debug("Rebuilding inventory ledger");
+
+        reconcile(null);
+    }
+
+    @Scheduled(fixedDelayString = "${sfg.brewery.allocation.ledger.reconcile-interval:300000}",
+            initialDelayString = "${sfg.brewery.allocation.ledger.reconcile-interval:300000}")
+    public void reconcileAll() {
+        reconcile(null);
+    }
+
+    /**
+     * Resets the quantity on hand of the given beers, or of all beers when null, from the inventory rows
+     */
+    public void reconcile(Collection<UUID> beerIds) {
+        persistenceLock.lock();
+        try {
+            // anything taken but not yet flushed is still part of the rows
+            Map<UUID, Integer> quantityOnHandByBeer = (beerIds == null
+                    ? beerInventoryRepository.findQuantityOnHandByBeer()
+                    : beerInventoryRepository.findQuantityOnHandByBeerIdIn(beerIds))
+                    .stream()
+                    .collect(Collectors.toMap(BeerInventoryRepository.BeerQuantity::getBeerId,
+                            beerQuantity -> beerQuantity.getQuantity() == null ? 0 : beerQuantity.getQuantity().intValue()));
+
+            Set<UUID> reconciledBeerIds = new HashSet<>(beerIds == null ? counters.keySet() : beerIds);
+            reconciledBeerIds.addAll(quantityOnHandByBeer.keySet());
+
+            reconciledBeerIds.forEach(beerId -> {
+                Counter counter = counter(beerId);
+
+                synchronized (stripe(beerId)) {
+                    int onHand = quantityOnHandByBeer.getOrDefault(beerId, 0) - counter.unflushed - counter.inFlight;
+
+                    if (onHand != counter.onHand) {
+                        log.debug("Reconciled beer " + beerId + " from " + counter.onHand + " to " + onHand);
+                    }
+                    counter.onHand = Math.max(0, onHand);
+                }
+            });
+        } finally {
+            persistenceLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the quantities taken by committed allocations back to the inventory rows
+     */
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${sfg.brewery.allocation.ledger.flush-interval:1000}")
+    public void flush() {
+        persistenceLock.lock();
+        try {
+            Map<UUID, Integer> deltas = new HashMap<>();
+
+            counters.forEach((beerId, counter) -> {
+                synchronized (stripe(beerId)) {
+                    if (counter.unflushed != 0) {
+                        deltas.put(beerId, counter.unflushed);
+                        counter.unflushed = 0;
+                    }
+                }
+            });
+
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            try {
+                transactionTemplate.execute(status -> {
+                    Map<UUID, List<BeerInventory>> inventoryByBeer = beerInventoryRepository
+                            .findAllOnHandByBeerIdIn(deltas.keySet())
+                            .stream()
+                            .collect(Collectors.groupingBy(beerInventory -> beerInventory.getBeer().getId()));
+
+                    deltas.forEach((beerId, delta) -> {
+                        List<BeerInventory> beerInventoryList = inventoryByBeer.getOrDefault(beerId, new ArrayList<>());
+                        int taken = new InventoryRowStock(beerInventoryList).take(delta);
+
+                        if (taken < delta) {
+                            log.warn("Inventory rows of beer " + beerId + " were " + (delta - taken) + " short of the ledger");
+                        }
+                    });
+                    return null;
+                });
+
+                log.debug("Flushed inventory ledger for " + deltas.size() + " beers");
+            } catch (RuntimeException e) {
+                log.error("Error flushing inventory ledger, retrying with the next flush", e);
+
+                deltas.forEach((beerId, delta) -> {
+                    synchronized (stripe(beerId)) {
+                        counter(beerId).unflushed += delta;
+                    }
+                });
+            }
+        } finally {
+            persistenceLock.unlock();
+        }
+    }
+
+    private Counter counter(UUID beerId) {
+        return counters.computeIfAbsent(beerId, id -> new Counter());
+    }
+
+    private Object stripe(UUID beerId) {
+        int hash = beerId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    private static class Counter {
+        // available to allocation
+        private int onHand;
+        // taken by transactions which have not completed yet
+        private int inFlight;
+        // taken by committed transactions, not yet written to the inventory rows
+        private int unflushed;
+    }
+
+    /**
+     * Stock taken for one transaction, returned to the ledger if the transaction rolls back.
+     * Stock may be taken from several threads as long as each beer is only taken by one of them.
+     */
+    public class Reservation {
+
+        private final Map<UUID, Integer> takenByBeer = new ConcurrentHashMap<>();
+
+        BeerStock stockOf(UUID beerId) {
+            return quantity -> take(beerId, quantity);
+        }
+
+        public int take(UUID beerId, int quantity) {
+            Counter counter = counter(beerId);
+            int taken;
+
+            synchronized (stripe(beerId)) {
+                taken = Math.min(Math.max(0, counter.onHand), quantity);
+                counter.onHand -= taken;
+                counter.inFlight += taken;
+            }
+
+            if (taken > 0) {
+                takenByBeer.merge(beerId, taken, Integer::sum);
+            }
+            return taken;
+        }
+
+        /**
+         * Completes the reservation together with the current transaction, or right away outside of one
+         */
+        public void complete() {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                complete(true);
+                return;
+            }
+
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    complete(status == TransactionSynchronization.STATUS_COMMITTED);
+                }
+            });
+        }
+
+        private void complete(boolean committed) {
+            takenByBeer.forEach((beerId, taken) -> {
+                Counter counter = counter(beerId);
+
+                synchronized (stripe(beerId)) {
+                    counter.inFlight -= taken;
+
+                    if (committed) {
+                        counter.unflushed += taken;
+                    } else {
+                        counter.onHand += taken;
+                    }
+                }
+            });
+        }
+    }
+}
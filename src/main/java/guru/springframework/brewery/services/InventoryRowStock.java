@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerInventory;
+
+import java.util.List;
+
+/**
+ * Stock backed by the inventory rows of one beer, taken from the rows in list order
+ */
+class InventoryRowStock implements BeerStock {
+
+    private final List<BeerInventory> beerInventoryList;
+
+    InventoryRowStock(List<BeerInventory> beerInventoryList) {
+        this.beerInventoryList = beerInventoryList;
+    }
+
+    @Override
+    public int take(int quantity) {
+        int remaining = quantity;
+
+        for (BeerInventory beerInventory : beerInventoryList) {
+            if (remaining == 0) {
+                break;
+            }
+
+            int inventory = (beerInventory.getQuantityOnHand() == null) ? 0 : beerInventory.getQuantityOnHand();
+
+            if (inventory >= remaining) { // full allocation
+                beerInventory.setQuantityOnHand(inventory - remaining);
+                remaining = 0;
+            } else if (inventory > 0) { //partial allocation
+                beerInventory.setQuantityOnHand(0);
+                remaining = remaining - inventory;
+            }
+        }
+
+        return quantity - remaining;
+    }
+}
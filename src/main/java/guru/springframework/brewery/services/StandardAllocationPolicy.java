@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public enum StandardAllocationPolicy implements AllocationPolicy {
+
+    /**
+     * Orders in the order they were placed
+     */
+    OLDEST_FIRST {
+        @Override
+        public List<BeerOrder> prioritize(List<BeerOrder> beerOrders) {
+            return beerOrders.stream()
+                    .sorted(BY_AGE)
+                    .collect(Collectors.toList());
+        }
+    },
+
+    /**
+     * Orders needing the least inventory first, so many small orders complete while stock is scarce
+     */
+    SMALLEST_FIRST {
+        @Override
+        public List<BeerOrder> prioritize(List<BeerOrder> beerOrders) {
+            return beerOrders.stream()
+                    .sorted(Comparator.comparingInt(StandardAllocationPolicy::getOpenQuantity).thenComparing(BY_AGE))
+                    .collect(Collectors.toList());
+        }
+    },
+
+    /**
+     * One order per customer in turn, each customer's orders oldest first, so a customer placing many or large
+     * orders cannot hold back the others
+     */
+    CUSTOMER_ROUND_ROBIN {
+        @Override
+        public List<BeerOrder> prioritize(List<BeerOrder> beerOrders) {
+            Map<Object, List<BeerOrder>> beerOrdersByCustomer = new LinkedHashMap<>();
+
+            // customers take turns in the order of their oldest order
+            OLDEST_FIRST.prioritize(beerOrders).forEach(beerOrder -> beerOrdersByCustomer
+                    .computeIfAbsent(beerOrder.getCustomer() == null ? beerOrder : beerOrder.getCustomer().getId(),
+                            customer -> new ArrayList<>())
+                    .add(beerOrder));
+
+            List<BeerOrder> prioritized = new ArrayList<>(beerOrders.size());
+
+            for (int turn = 0; prioritized.size() < beerOrders.size(); turn++) {
+                for (List<BeerOrder> customerBeerOrders : beerOrdersByCustomer.values()) {
+                    if (turn < customerBeerOrders.size()) {
+                        prioritized.add(customerBeerOrders.get(turn));
+                    }
+                }
+            }
+            return prioritized;
+        }
+    };
+
+    // sorting is stable, orders created at the same time keep the order they were read in
+    static final Comparator<BeerOrder> BY_AGE =
+            Comparator.comparing(BeerOrder::getCreatedDate, Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private static int getOpenQuantity(BeerOrder beerOrder) {
+        int openQuantity = 0;
+
+        for (BeerOrderLine beerOrderLine : beerOrder.getBeerOrderLines()) {
+            int orderQty = (beerOrderLine.getOrderQuantity() == null) ? 0 : beerOrderLine.getOrderQuantity();
+            int allocatedQty = (beerOrderLine.getQuantityAllocated() == null) ? 0 : beerOrderLine.getQuantityAllocated();
+
+            openQuantity += Math.max(0, orderQty - allocatedQty);
+        }
+        return openQuantity;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.simulation;
+
+import guru.springframework.brewery.config.AllocationProperties;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.events.BeerOrderStatusChangeEvent;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.services.BeerOrderAllocationService;
+import guru.springframework.brewery.services.BeerOrderService;
+import guru.springframework.brewery.services.BeerShortfallService;
+import guru.springframework.brewery.services.InventoryCompactionService;
+import guru.springframework.brewery.services.InventoryLedger;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a timeline of placed orders and inventory receipts against the allocation in virtual time, to see how
+ * a change of the {@code sfg.brewery.allocation} properties changes the time to READY and the shortfall before
+ * making it in production.
+ *
+ * Runs with the {@code simulation} profile on a fresh in memory database. Nothing runs in real time: the
+ * {@link VirtualClock} jumps from one event to the next, and the sweeps, ledger flushes and compactions run at
+ * their configured intervals in between, as the scheduler would. With {@code sfg.brewery.allocation.event-driven}
+ * orders and receipts are allocated right away, as the event listener would once they were committed.
+ *
+ * Orders are placed through the {@link BeerOrderService}, then dated back to their virtual time, so the sweep
+ * order and the max wait work as they would have.
+ */
+@Slf4j
+@Component
+@Profile("simulation")
+public class AllocationSimulator implements CommandLineRunner {
+
+    private final SimulationProperties simulationProperties;
+    private final AllocationProperties allocationProperties;
+    private final VirtualClock clock;
+    private final BeerOrderService beerOrderService;
+    private final BeerOrderAllocationService beerOrderAllocationService;
+    private final InventoryCompactionService inventoryCompactionService;
+    private final BeerShortfallService beerShortfallService;
+    private final Optional<InventoryLedger> inventoryLedger;
+    private final BeerRepository beerRepository;
+    private final BeerInventoryRepository beerInventoryRepository;
+    private final BeerOrderRepository beerOrderRepository;
+    private final CustomerRepository customerRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManager entityManager;
+    private final ResourceLoader resourceLoader;
+
+    private final Map<Long, UUID> beerIdsByUpc = new HashMap<>();
+    private final Map<String, UUID> customerIdsByName = new HashMap<>();
+    private final Map<UUID, Long> placedAt = new ConcurrentHashMap<>();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    private final List<SimulationReport.BacklogSample> backlog = new ArrayList<>();
+    private long start;
+    private int placedOrders;
+    private SimulationReport report;
+
+    public AllocationSimulator(SimulationProperties simulationProperties, AllocationProperties allocationProperties,
+                               VirtualClock clock, BeerOrderService beerOrderService,
+                               BeerOrderAllocationService beerOrderAllocationService,
+                               InventoryCompactionService inventoryCompactionService,
+                               BeerShortfallService beerShortfallService,
+                               Optional<InventoryLedger> inventoryLedger, BeerRepository beerRepository,
+                               BeerInventoryRepository beerInventoryRepository, BeerOrderRepository beerOrderRepository,
+                               CustomerRepository customerRepository, TransactionTemplate transactionTemplate,
+                               EntityManager entityManager, ResourceLoader resourceLoader) {
+        this.simulationProperties = simulationProperties;
+        this.allocationProperties = allocationProperties;
+        this.clock = clock;
+        this.beerOrderService = beerOrderService;
+        this.beerOrderAllocationService = beerOrderAllocationService;
+        this.inventoryCompactionService = inventoryCompactionService;
+        this.beerShortfallService = beerShortfallService;
+        this.inventoryLedger = inventoryLedger;
+        this.beerRepository = beerRepository;
+        this.beerInventoryRepository = beerInventoryRepository;
+        this.beerOrderRepository = beerOrderRepository;
+        this.customerRepository = customerRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManager = entityManager;
+        this.resourceLoader = resourceLoader;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        SimulationTimeline timeline = loadTimeline();
+
+        log.info("Simulating " + timeline.getEvents().size() + " events");
+
+        report = simulate(timeline);
+
+        log.info("Simulation finished\n" + report.format());
+    }
+
+    /**
+     * Report of the simulation run at startup
+     */
+    public SimulationReport getReport() {
+        return report;
+    }
+
+    @EventListener
+    public void onBeerOrderStatusChange(BeerOrderStatusChangeEvent event) {
+        if (event.getBeerOrder().getOrderStatus() == OrderStatusEnum.READY) {
+            Long placed = placedAt.remove(event.getBeerOrder().getId());
+
+            if (placed != null) {
+                latencies.add(clock.millis() - placed);
+            }
+        }
+    }
+
+    private SimulationTimeline loadTimeline() throws IOException {
+        if (!StringUtils.hasText(simulationProperties.getTimeline())) {
+            return SimulationTimeline.synthetic(simulationProperties.getDuration(), simulationProperties.getSynthetic());
+        }
+
+        try (Reader reader = new InputStreamReader(
+                resourceLoader.getResource(simulationProperties.getTimeline()).getInputStream(), StandardCharsets.UTF_8)) {
+            return SimulationTimeline.read(reader);
+        }
+    }
+
+    private SimulationReport simulate(SimulationTimeline timeline) {
+        start = clock.millis();
+        long end = start + Math.max(timeline.getEnd(), simulationProperties.getDuration());
+
+        // what the scheduler would run, at the same intervals
+        List<PeriodicTask> periodicTasks = new ArrayList<>();
+        periodicTasks.add(new PeriodicTask(start, simulationProperties.getSampleInterval(), this::sampleBacklog));
+        periodicTasks.add(new PeriodicTask(start, allocationProperties.getSweepInterval(),
+                beerOrderAllocationService::runBeerOrderAllocation));
+        periodicTasks.add(new PeriodicTask(start + allocationProperties.getCompactionInterval(),
+                allocationProperties.getCompactionInterval(), inventoryCompactionService::compact));
+        inventoryLedger.ifPresent(ledger -> {
+            periodicTasks.add(new PeriodicTask(start, allocationProperties.getLedger().getFlushInterval(), ledger::flush));
+            periodicTasks.add(new PeriodicTask(start + allocationProperties.getLedger().getReconcileInterval(),
+                    allocationProperties.getLedger().getReconcileInterval(), ledger::reconcileAll));
+        });
+        periodicTasks.removeIf(periodicTask -> periodicTask.interval <= 0);
+
+        for (SimulationTimeline.Event event : timeline.getEvents()) {
+            runPeriodicTasks(periodicTasks, start + event.getAt());
+            clock.setMillis(start + event.getAt());
+
+            switch (event.getType()) {
+                case ORDER:
+                    placeOrder(event);
+                    break;
+                case RECEIPT:
+                    receiveInventory(event);
+                    break;
+            }
+        }
+
+        runPeriodicTasks(periodicTasks, end);
+        clock.setMillis(end);
+        sampleBacklog();
+        inventoryLedger.ifPresent(InventoryLedger::flush);
+
+        return buildReport(end - start);
+    }
+
+    private void runPeriodicTasks(List<PeriodicTask> periodicTasks, long until) {
+        while (!periodicTasks.isEmpty()) {
+            PeriodicTask next = Collections.min(periodicTasks, Comparator.comparingLong(periodicTask -> periodicTask.next));
+
+            if (next.next > until) {
+                return;
+            }
+
+            clock.setMillis(next.next);
+            next.action.run();
+            next.next += next.interval;
+        }
+    }
+
+    private void placeOrder(SimulationTimeline.Event event) {
+        List<BeerOrderLineDto> beerOrderLines = event.getQuantityByUpc().entrySet().stream()
+                .map(entry -> BeerOrderLineDto.builder()
+                        .beerId(beerId(entry.getKey()))
+                        .orderQuantity(entry.getValue())
+                        .build())
+                .collect(Collectors.toList());
+
+        BeerOrderDto beerOrder = beerOrderService.placeOrder(customerId(event.getCustomer()), BeerOrderDto.builder()
+                .customerRef("simulation-" + placedOrders++)
+                .beerOrderLines(beerOrderLines)
+                .build());
+
+        transactionTemplate.execute(status -> entityManager
+                .createQuery("update BeerOrder o set o.createdDate = :createdDate where o.id = :id")
+                .setParameter("createdDate", new Timestamp(clock.millis()))
+                .setParameter("id", beerOrder.getId())
+                .executeUpdate());
+        placedAt.put(beerOrder.getId(), clock.millis());
+
+        if (allocationProperties.isEventDriven()) {
+            beerOrderAllocationService.allocateBeerOrder(beerOrder.getId());
+        }
+    }
+
+    private void receiveInventory(SimulationTimeline.Event event) {
+        event.getQuantityByUpc().forEach((upc, quantity) -> {
+            UUID beerId = beerId(upc);
+
+            transactionTemplate.execute(status -> beerInventoryRepository.save(BeerInventory.builder()
+                    .beer(beerRepository.getOne(beerId))
+                    .quantityOnHand(quantity)
+                    .build()));
+
+            if (allocationProperties.isEventDriven()) {
+                beerOrderAllocationService.allocateBeerOrdersWaitingOnBeer(beerId);
+            }
+        });
+    }
+
+    private UUID beerId(Long upc) {
+        return beerIdsByUpc.computeIfAbsent(upc, newUpc -> beerRepository.save(Beer.builder()
+                .beerName("Beer " + newUpc)
+                .upc(newUpc)
+                .build()).getId());
+    }
+
+    private UUID customerId(String customerName) {
+        return customerIdsByName.computeIfAbsent(customerName, newName -> customerRepository.save(Customer.builder()
+                .customerName(newName)
+                .apiKey(UUID.randomUUID())
+                .build()).getId());
+    }
+
+    private void sampleBacklog() {
+        backlog.add(new SimulationReport.BacklogSample(clock.millis() - start,
+                beerOrderRepository.countByOrderStatus(OrderStatusEnum.NEW)));
+    }
+
+    private SimulationReport buildReport(long duration) {
+        List<Long> sortedLatencies = new ArrayList<>(latencies);
+        Collections.sort(sortedLatencies);
+
+        return SimulationReport.builder()
+                .duration(duration)
+                .backlog(backlog)
+                .placedOrders(placedOrders)
+                .readyOrders(sortedLatencies.size())
+                .latencyP50(percentile(sortedLatencies, 0.5))
+                .latencyP95(percentile(sortedLatencies, 0.95))
+                .latencyP99(percentile(sortedLatencies, 0.99))
+                .latencyMax(percentile(sortedLatencies, 1))
+                .shortfalls(beerShortfallService.listShortfalls())
+                .build();
+    }
+
+    private static long percentile(List<Long> sortedValues, double percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        // nearest rank
+        int rank = (int) Math.ceil(percentile * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
+    private static class PeriodicTask {
+        private final long interval;
+        private final Runnable action;
+        private long next;
+
+        PeriodicTask(long first, long interval, Runnable action) {
+            this.next = first;
+            this.interval = interval;
+            this.action = action;
+        }
+    }
+}
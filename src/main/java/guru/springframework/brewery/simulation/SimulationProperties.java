@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.simulation;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * What the allocation simulation replays, bound from the {@code sfg.brewery.simulation} properties.
+ *
+ * The allocation itself is tuned with the usual {@code sfg.brewery.allocation} properties, which is what the
+ * simulation is there to try out.
+ */
+@Getter
+@Setter
+@Component
+@Profile("simulation")
+@ConfigurationProperties(prefix = "sfg.brewery.simulation")
+public class SimulationProperties {
+
+    /**
+     * Location of a recorded timeline, for example {@code file:peak-weekend.csv}, a synthetic timeline is generated
+     * when not set
+     */
+    private String timeline;
+
+    /**
+     * Virtual milliseconds to simulate, a longer recorded timeline is replayed to its end
+     */
+    private long duration = 172800000;
+
+    /**
+     * Virtual milliseconds between samples of the backlog
+     */
+    private long sampleInterval = 900000;
+
+    private final Synthetic synthetic = new Synthetic();
+
+    @Getter
+    @Setter
+    public static class Synthetic {
+
+        /**
+         * Average number of orders placed per hour, arriving at random
+         */
+        private int ordersPerHour = 200;
+
+        private int customers = 50;
+
+        private int beers = 10;
+
+        /**
+         * Number of lines of every order, each for a different beer
+         */
+        private int linesPerOrder = 3;
+
+        /**
+         * Order lines ask for 1 up to this quantity
+         */
+        private int maxOrderQuantity = 12;
+
+        /**
+         * Virtual milliseconds between brews, every brew adds the brew quantity of every beer
+         */
+        private long brewInterval = 21600000;
+
+        private int brewQuantity = 2000;
+
+        /**
+         * Seed of the random generator, the same seed generates the same timeline
+         */
+        private long seed = 42;
+    }
+}
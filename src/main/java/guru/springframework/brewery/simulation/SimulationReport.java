@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.simulation;
+
+import guru.springframework.brewery.web.model.BeerShortfallDto;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Outcome of a simulation, all times are virtual
+ */
+@Getter
+@Builder
+public class SimulationReport {
+
+    private final long duration;
+    private final List<BacklogSample> backlog;
+    private final int placedOrders;
+    private final int readyOrders;
+
+    /**
+     * Milliseconds from placing an order until it was READY, over the orders which got READY
+     */
+    private final long latencyP50;
+    private final long latencyP95;
+    private final long latencyP99;
+    private final long latencyMax;
+
+    /**
+     * Beers still owed to NEW orders at the end, largest shortfall first
+     */
+    private final List<BeerShortfallDto> shortfalls;
+
+    @Getter
+    @AllArgsConstructor
+    public static class BacklogSample {
+        private final long at;
+        private final long newOrders;
+    }
+
+    public String format() {
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("Simulated %s: %d orders placed, %d READY, %d still NEW%n",
+                format(duration), placedOrders, readyOrders, placedOrders - readyOrders));
+        report.append(String.format("Time to READY: p50 %s, p95 %s, p99 %s, max %s%n",
+                format(latencyP50), format(latencyP95), format(latencyP99), format(latencyMax)));
+
+        report.append(String.format("%nBacklog%n%12s %10s%n", "at", "NEW orders"));
+        backlog.forEach(sample -> report.append(String.format("%12s %10d%n", format(sample.getAt()), sample.getNewOrders())));
+
+        report.append(String.format("%nShortfall%n%-14s %-30s %10s %10s %10s %10s%n", "upc", "beer", "open", "on hand",
+                "shortfall", "orders"));
+        shortfalls.forEach(shortfall -> report.append(String.format("%-14d %-30s %10d %10d %10d %10d%n",
+                shortfall.getUpc(), shortfall.getBeerName(), shortfall.getQuantityOpen(), shortfall.getQuantityOnHand(),
+                shortfall.getShortfall(), shortfall.getBlockedOrders())));
+
+        return report.toString();
+    }
+
+    private static String format(long millis) {
+        return Duration.ofMillis(millis).toString().substring(2).toLowerCase();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.simulation;
+
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Placed orders and inventory receipts in the order they happen, at virtual milliseconds after the start.
+ *
+ * A recorded timeline has one event per line, times are ISO-8601 durations since the start, beers are identified
+ * by their UPC:
+ * <pre>
+ * # at,RECEIPT,upc,quantity
+ * PT0S,RECEIPT,337010000001,500
+ * # at,ORDER,customer,upc:quantity upc:quantity...
+ * PT1M30S,ORDER,Tasting Room,337010000001:6 337010000002:12
+ * </pre>
+ */
+@Getter
+public class SimulationTimeline {
+
+    static final long SYNTHETIC_UPC_BASE = 990000000000L;
+
+    private final List<Event> events;
+
+    SimulationTimeline(List<Event> events) {
+        List<Event> sorted = new ArrayList<>(events);
+        // stable, events at the same time keep their order
+        sorted.sort(Comparator.comparingLong(Event::getAt));
+        this.events = Collections.unmodifiableList(sorted);
+    }
+
+    public long getEnd() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).getAt();
+    }
+
+    public static SimulationTimeline read(Reader reader) throws IOException {
+        List<Event> events = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                events.add(parse(line));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid timeline event on line " + lineNumber + ": " + line, e);
+            }
+        }
+        return new SimulationTimeline(events);
+    }
+
+    private static Event parse(String line) {
+        String[] fields = line.split(",");
+
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Expected 4 fields but got " + fields.length);
+        }
+
+        long at;
+        try {
+            at = Duration.parse(fields[0].trim()).toMillis();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Time is not an ISO-8601 duration", e);
+        }
+
+        switch (EventType.valueOf(fields[1].trim())) {
+            case RECEIPT:
+                return Event.receipt(at, Long.parseLong(fields[2].trim()), Integer.parseInt(fields[3].trim()));
+            case ORDER:
+                Map<Long, Integer> quantityByUpc = new LinkedHashMap<>();
+
+                for (String orderLine : fields[3].trim().split("\\s+")) {
+                    String[] upcAndQuantity = orderLine.split(":");
+                    quantityByUpc.merge(Long.parseLong(upcAndQuantity[0]), Integer.parseInt(upcAndQuantity[1]),
+                            Integer::sum);
+                }
+                return Event.order(at, fields[2].trim(), quantityByUpc);
+            default:
+                throw new IllegalArgumentException("Unknown event type " + fields[1]);
+        }
+    }
+
+    /**
+     * Orders arriving at random at the configured rate, and every beer brewed at a fixed interval from the start
+     */
+    public static SimulationTimeline synthetic(long duration, SimulationProperties.Synthetic synthetic) {
+        Random random = new Random(synthetic.getSeed());
+        List<Event> events = new ArrayList<>();
+
+        for (long at = 0; at < duration; at += synthetic.getBrewInterval()) {
+            for (int beer = 0; beer < synthetic.getBeers(); beer++) {
+                events.add(Event.receipt(at, SYNTHETIC_UPC_BASE + beer, synthetic.getBrewQuantity()));
+            }
+        }
+
+        double meanInterArrival = 3600000d / synthetic.getOrdersPerHour();
+        int linesPerOrder = Math.min(synthetic.getLinesPerOrder(), synthetic.getBeers());
+        long at = 0;
+
+        while (true) {
+            // exponential inter-arrival times, the orders of a Poisson process
+            at += (long) (-meanInterArrival * Math.log(1 - random.nextDouble()));
+
+            if (at >= duration) {
+                break;
+            }
+
+            Map<Long, Integer> quantityByUpc = new LinkedHashMap<>();
+
+            while (quantityByUpc.size() < linesPerOrder) {
+                quantityByUpc.putIfAbsent(SYNTHETIC_UPC_BASE + random.nextInt(synthetic.getBeers()),
+                        1 + random.nextInt(synthetic.getMaxOrderQuantity()));
+            }
+            events.add(Event.order(at, "Customer " + random.nextInt(synthetic.getCustomers()), quantityByUpc));
+        }
+
+        return new SimulationTimeline(events);
+    }
+
+    public enum EventType {
+        ORDER, RECEIPT
+    }
+
+    @Getter
+    public static class Event {
+
+        private final long at;
+        private final EventType type;
+        private final String customer;
+        private final Map<Long, Integer> quantityByUpc;
+
+        private Event(long at, EventType type, String customer, Map<Long, Integer> quantityByUpc) {
+            this.at = at;
+            this.type = type;
+            this.customer = customer;
+            this.quantityByUpc = Collections.unmodifiableMap(quantityByUpc);
+        }
+
+        static Event order(long at, String customer, Map<Long, Integer> quantityByUpc) {
+            return new Event(at, EventType.ORDER, customer, quantityByUpc);
+        }
+
+        static Event receipt(long at, long upc, int quantity) {
+            return new Event(at, EventType.RECEIPT, null, Map.of(upc, quantity));
+        }
+    }
+}
@@ -22,14 +22,16 @@ import guru.springframework.brewery.web.model.BeerDto;
 import guru.springframework.brewery.web.model.BeerPagedList;
 import guru.springframework.brewery.web.model.BeerStyleEnum;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import java.util.Optional;
 import java.util.UUID;
 
 @RequestMapping("/api/v1/beer")
@@ -61,12 +63,23 @@ public class BeerController {
 
         BeerPagedList beerList = beerService.listBeers(beerName, beerStyle, PageRequest.of(pageNumber, pageSize));
 
-        return new ResponseEntity<>(beerList, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(ETags.weak(beerList, ETags::version)).body(beerList);
     }
 
     @GetMapping(path = {"/{beerId}"},produces = { "application/json" })
-    public ResponseEntity<BeerDto>  getBeerById(@PathVariable("beerId") UUID beerId){
+    public ResponseEntity<BeerDto>  getBeerById(@PathVariable("beerId") UUID beerId, WebRequest webRequest){
 
-        return new ResponseEntity<>(beerService.findBeerById(beerId), HttpStatus.OK);
+        // an unchanged beer is answered with 304 from its version alone
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Long> version = beerService.findBeerVersion(beerId);
+
+            if (version.isPresent() && webRequest.checkNotModified(ETags.strong(beerId, version.get()))) {
+                return null;
+            }
+        }
+
+        BeerDto beerDto = beerService.findBeerById(beerId);
+
+        return ResponseEntity.ok().eTag(ETags.strong(beerId, ETags.version(beerDto))).body(beerDto);
     }
 }
@@ -17,21 +17,33 @@
 
 package guru.springframework.brewery.web.controllers;
 
+import guru.springframework.brewery.services.BeerOrderAdmissionService;
+import guru.springframework.brewery.services.BeerOrderIntakeNotFoundException;
+import guru.springframework.brewery.services.BeerOrderIntakeService;
 import guru.springframework.brewery.services.BeerOrderService;
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
 import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderIntakeDto;
 import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.util.Optional;
 import java.util.UUID;
 
 @RequestMapping("/api/v1/customers/{customerId}/")
@@ -40,15 +52,23 @@ public class BeerOrderController {
 
     static final Integer DEFAULT_PAGE_NUMBER = 0;
     static final Integer DEFAULT_PAGE_SIZE = 25;
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final String PREFER_HEADER = "Prefer";
+    static final String RESPOND_ASYNC = "respond-async";
 
     private final BeerOrderService beerOrderService;
+    private final BeerOrderAdmissionService beerOrderAdmissionService;
+    private final Optional<BeerOrderIntakeService> beerOrderIntakeService;
 
-    public BeerOrderController(BeerOrderService beerOrderService) {
+    public BeerOrderController(BeerOrderService beerOrderService, BeerOrderAdmissionService beerOrderAdmissionService,
+                               Optional<BeerOrderIntakeService> beerOrderIntakeService) {
         this.beerOrderService = beerOrderService;
+        this.beerOrderAdmissionService = beerOrderAdmissionService;
+        this.beerOrderIntakeService = beerOrderIntakeService;
     }
 
     @GetMapping("orders")
-    public BeerOrderPagedList listOrders(@PathVariable("customerId") UUID customerId,
+    public ResponseEntity<BeerOrderPagedList> listOrders(@PathVariable("customerId") UUID customerId,
                                          @RequestParam(value = "pageNumber", required = false) Integer pageNumber,
                                          @RequestParam(value = "pageSize", required = false) Integer pageSize){
 
@@ -60,18 +80,93 @@ public class BeerOrderController {
             pageSize = DEFAULT_PAGE_SIZE;
         }
 
-        return beerOrderService.listOrders(customerId, PageRequest.of(pageNumber, pageSize));
+        BeerOrderPagedList beerOrderList = beerOrderService.listOrders(customerId, PageRequest.of(pageNumber, pageSize));
+
+        // no page for an unknown customer, answered without a tag
+        if (beerOrderList == null) {
+            return ResponseEntity.ok().build();
+        }
+
+        return ResponseEntity.ok().eTag(ETags.weak(beerOrderList, ETags::revision)).body(beerOrderList);
+    }
+
+    /**
+     * Walks the orders with the cursor of the previous page instead of a page number, an empty cursor starts at the
+     * first order. Deep pages cost the same as the first one and the orders are not counted.
+     */
+    @GetMapping(value = "orders", params = "cursor")
+    public BeerOrderCursorPage listOrders(@PathVariable("customerId") UUID customerId,
+                                          @RequestParam("cursor") String cursor,
+                                          @RequestParam(value = "pageSize", required = false) Integer pageSize){
+
+        if (pageSize == null || pageSize < 1) {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+
+        return beerOrderService.listOrders(customerId, cursor, pageSize);
     }
 
     @PostMapping("orders")
-    @ResponseStatus(HttpStatus.CREATED)
-    public BeerOrderDto placeOrder(@PathVariable("customerId") UUID customerId, @RequestBody BeerOrderDto beerOrderDto){
-        return beerOrderService.placeOrder(customerId, beerOrderDto);
+    public ResponseEntity<?> placeOrder(@PathVariable("customerId") UUID customerId, @RequestBody BeerOrderDto beerOrderDto,
+                                        @RequestParam(value = "reservation", required = false) ReservationModeEnum reservation,
+                                        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                        @RequestHeader(value = PREFER_HEADER, required = false) String prefer){
+
+        if (reservation == null) {
+            reservation = ReservationModeEnum.NONE;
+        }
+
+        // a retried request gets the order placed first, even while new orders are not admitted
+        Optional<BeerOrderDto> placedBeerOrder = beerOrderService.findPlacedOrder(customerId, beerOrderDto,
+                idempotencyKey);
+
+        if (placedBeerOrder.isPresent()) {
+            return ResponseEntity.status(HttpStatus.CREATED).body(placedBeerOrder.get());
+        }
+
+        // 429 or 503 while allocation is behind
+        beerOrderAdmissionService.admit(customerId);
+
+        // reserving stock needs the answer right away, without the intake the preference is ignored
+        if (reservation == ReservationModeEnum.NONE && beerOrderIntakeService.isPresent() && prefersAsync(prefer)) {
+            BeerOrderIntakeDto intake = beerOrderIntakeService.get().queueOrder(customerId, beerOrderDto, idempotencyKey);
+
+            return ResponseEntity.accepted()
+                    .location(ServletUriComponentsBuilder.fromCurrentRequestUri()
+                            .path("/{orderId}/intake")
+                            .buildAndExpand(intake.getOrderId())
+                            .toUri())
+                    .body(intake);
+        }
+
+        // a request racing the one placing the same order gets the order placed first too
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(beerOrderService.placeOrder(customerId, beerOrderDto, reservation, idempotencyKey));
+    }
+
+    @GetMapping("orders/{orderId}/intake")
+    public BeerOrderIntakeDto getIntake(@PathVariable("customerId") UUID customerId, @PathVariable("orderId") UUID orderId){
+        return beerOrderIntakeService
+                .orElseThrow(() -> new BeerOrderIntakeNotFoundException("Beer Order Not Found"))
+                .getIntake(customerId, orderId);
     }
 
     @GetMapping("orders/{orderId}")
-    public BeerOrderDto getOrder(@PathVariable("customerId") UUID customerId, @PathVariable("orderId") UUID orderId){
-        return beerOrderService.getOrderById(customerId, orderId);
+    public ResponseEntity<BeerOrderDto> getOrder(@PathVariable("customerId") UUID customerId,
+                                                 @PathVariable("orderId") UUID orderId, WebRequest webRequest){
+
+        // an unchanged order is answered with 304 from its revision alone
+        if (webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            Optional<Long> revision = beerOrderService.findOrderRevision(customerId, orderId);
+
+            if (revision.isPresent() && webRequest.checkNotModified(ETags.strong(orderId, revision.get()))) {
+                return null;
+            }
+        }
+
+        BeerOrderDto beerOrderDto = beerOrderService.getOrderById(customerId, orderId);
+
+        return ResponseEntity.ok().eTag(ETags.strong(orderId, ETags.revision(beerOrderDto))).body(beerOrderDto);
     }
 
     @PutMapping("/orders/{orderId}/pickup")
@@ -79,4 +174,17 @@ public class BeerOrderController {
     public void pickupOrder(@PathVariable("customerId") UUID customerId, @PathVariable("orderId") UUID orderId){
         beerOrderService.pickupOrder(customerId, orderId);
     }
+
+    private static boolean prefersAsync(String prefer) {
+        if (prefer == null) {
+            return false;
+        }
+
+        for (String preference : prefer.split(",")) {
+            if (preference.trim().equalsIgnoreCase(RESPOND_ASYNC)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
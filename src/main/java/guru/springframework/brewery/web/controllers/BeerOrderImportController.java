@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.web.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import guru.springframework.brewery.services.BeerOrderImportService;
+import guru.springframework.brewery.web.model.BeerOrderImportResultDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bulk import of orders of any customers, one {@code BeerOrderDto} with its {@code customerId} per line of the
+ * body. The body is read and the results are written back while the import is running, one result per record.
+ */
+@RequestMapping("/api/v1/orders/")
+@RestController
+public class BeerOrderImportController {
+
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final BeerOrderImportService beerOrderImportService;
+    private final ObjectWriter resultWriter;
+
+    public BeerOrderImportController(BeerOrderImportService beerOrderImportService, ObjectMapper objectMapper) {
+        this.beerOrderImportService = beerOrderImportService;
+        this.resultWriter = objectMapper.writerFor(BeerOrderImportResultDto.class);
+    }
+
+    @PostMapping(path = "import", consumes = APPLICATION_NDJSON, produces = APPLICATION_NDJSON)
+    public void importOrders(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(APPLICATION_NDJSON);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+
+        beerOrderImportService.importOrders(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8),
+                results -> {
+                    try {
+                        for (BeerOrderImportResultDto result : results) {
+                            writer.write(resultWriter.writeValueAsString(result));
+                            writer.write('\n');
+                        }
+                        // the client sees the results of every committed chunk right away
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+        writer.flush();
+    }
+}
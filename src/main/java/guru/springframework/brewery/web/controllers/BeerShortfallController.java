@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.web.controllers;
+
+import guru.springframework.brewery.services.BeerShortfallService;
+import guru.springframework.brewery.web.model.BeerShortfallDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RequestMapping("/api/v1/beer/shortfall")
+@RestController
+public class BeerShortfallController {
+
+    private final BeerShortfallService beerShortfallService;
+
+    public BeerShortfallController(BeerShortfallService beerShortfallService) {
+        this.beerShortfallService = beerShortfallService;
+    }
+
+    @GetMapping(produces = {"application/json"})
+    public ResponseEntity<List<BeerShortfallDto>> listShortfalls() {
+
+        return new ResponseEntity<>(beerShortfallService.listShortfalls(), HttpStatus.OK);
+    }
+}
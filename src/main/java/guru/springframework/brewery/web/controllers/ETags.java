@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.web.controllers;
+
+import guru.springframework.brewery.web.model.BaseItem;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import org.springframework.data.domain.Page;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.ToLongFunction;
+
+/**
+ * Entity tags of the resources. A beer or an order is tagged strongly by its id and revision, which changes with
+ * every change of it, so polling clients can be answered without loading it. A page is tagged weakly by a digest of
+ * its position, the totals and the revisions on it, it is still built on every request but not sent again.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    static String strong(UUID id, long revision) {
+        return "\"" + id + "-" + revision + "\"";
+    }
+
+    static <T extends BaseItem> String weak(Page<T> page, ToLongFunction<? super T> revision) {
+        StringBuilder tagged = new StringBuilder()
+                .append(page.getNumber()).append('/').append(page.getSize()).append('/').append(page.getTotalElements());
+
+        for (T item : page.getContent()) {
+            tagged.append(';').append(item.getId()).append('-').append(revision.applyAsLong(item));
+        }
+        return "W/\"" + DigestUtils.md5DigestAsHex(tagged.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    static long version(BaseItem item) {
+        return item.getVersion() == null ? 0 : item.getVersion();
+    }
+
+    /**
+     * The version of the order plus the versions of its lines, as read by the revision lookup
+     */
+    static long revision(BeerOrderDto beerOrderDto) {
+        long revision = version(beerOrderDto);
+
+        if (beerOrderDto.getBeerOrderLines() != null) {
+            for (BeerOrderLineDto beerOrderLineDto : beerOrderDto.getBeerOrderLines()) {
+                revision += version(beerOrderLineDto);
+            }
+        }
+        return revision;
+    }
+}
@@ -18,13 +18,19 @@
 package guru.springframework.brewery.web.mappers;
 
 import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.repositories.BeerRow;
 import guru.springframework.brewery.web.model.BeerDto;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(uses = DateMapper.class)
 public interface BeerMapper {
 
     BeerDto beerToBeerDto(Beer beer);
 
+    // the row carries no stock, like the beer itself
+    @Mapping(target = "quantityOnHand", ignore = true)
+    BeerDto beerRowToBeerDto(BeerRow beerRow);
+
     Beer beerDtoToBeer(BeerDto beerDto);
 }
@@ -20,19 +20,34 @@ package guru.springframework.brewery.web.mappers;
 import guru.springframework.brewery.domain.Beer;
 import guru.springframework.brewery.domain.BeerOrder;
 import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.repositories.BeerOrderLineRow;
+import guru.springframework.brewery.repositories.BeerOrderRow;
 import guru.springframework.brewery.web.model.BeerOrderDto;
 import guru.springframework.brewery.web.model.BeerOrderLineDto;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(uses = DateMapper.class)
 public interface BeerOrderMapper {
 
     BeerOrderDto beerOrderToDto(BeerOrder beerOrder);
 
+    // the allocation lease is only ever set by the allocation
+    @Mapping(target = "allocationOwner", ignore = true)
+    @Mapping(target = "allocationLeaseExpiry", ignore = true)
+    // the idempotency key comes with the request, not with the order
+    @Mapping(target = "idempotencyKey", ignore = true)
     BeerOrder dtoToBeerOrder(BeerOrderDto dto);
 
+    @Mapping(source = "beer.id", target = "beerId")
     BeerOrderLineDto beerOrderLineToDto(BeerOrderLine line);
 
+    // the lines are read separately
+    @Mapping(target = "beerOrderLines", ignore = true)
+    BeerOrderDto beerOrderRowToDto(BeerOrderRow beerOrderRow);
+
+    BeerOrderLineDto beerOrderLineRowToDto(BeerOrderLineRow beerOrderLineRow);
+
     default BeerOrderLine dtoToBeerOrder(BeerOrderLineDto dto){
         return BeerOrderLine.builder()
                 .orderQuantity(dto.getOrderQuantity())
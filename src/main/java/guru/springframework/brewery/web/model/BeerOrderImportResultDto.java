@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package guru.springframework.brewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * Outcome of one record of a bulk order import
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BeerOrderImportResultDto {
+
+    /**
+     * Line of the record in the imported body, starting at 1
+     */
+    private long line;
+
+    private String customerRef;
+
+    /**
+     * Id of the placed order, only set when the record was imported
+     */
+    private UUID orderId;
+
+    /**
+     * HTTP status of the record, 201 when imported, 200 when its order was imported or placed before
+     */
+    private int status;
+
+    private String error;
+
+    /**
+     * Seconds after which a record turned away because allocation is behind may be sent again
+     */
+    private Long retryAfterSeconds;
+}
@@ -32,12 +32,14 @@ public class BeerOrderLineDto extends BaseItem {
 
     @Builder
     public BeerOrderLineDto(UUID id, Integer version, OffsetDateTime createdDate, OffsetDateTime lastModifiedDate,
-                            UUID beerId, Integer orderQuantity) {
+                            UUID beerId, Integer orderQuantity, Integer quantityAllocated) {
         super(id, version, createdDate, lastModifiedDate);
         this.beerId = beerId;
         this.orderQuantity = orderQuantity;
+        this.quantityAllocated = quantityAllocated;
     }
 
     private UUID beerId;
     private Integer orderQuantity;
+    private Integer quantityAllocated;
 }
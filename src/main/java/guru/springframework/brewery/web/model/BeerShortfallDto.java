@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.web.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * What NEW orders still wait for of a beer, against what is on hand
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BeerShortfallDto {
+
+    private UUID beerId;
+    private String beerName;
+    private Long upc;
+
+    /**
+     * Ordered but not yet allocated quantity of the NEW orders
+     */
+    private long quantityOpen;
+    private long quantityOnHand;
+
+    /**
+     * Quantity to brew to cover the open quantity
+     */
+    private long shortfall;
+
+    /**
+     * NEW orders with an open line for the beer
+     */
+    private long blockedOrders;
+}
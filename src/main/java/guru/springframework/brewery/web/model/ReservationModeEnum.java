@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2019 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package guru.springframework.brewery.web.model;
+
+/**
+ * How placing an order reserves stock for its lines
+ */
+public enum ReservationModeEnum {
+
+    /**
+     * Placed as NEW without looking at stock, allocated once it has been committed
+     */
+    NONE,
+
+    /**
+     * READY right away when every line can be reserved in full, rejected otherwise
+     */
+    ALL_OR_NOTHING,
+
+    /**
+     * Reserves what is on hand, READY right away when that covers every line, otherwise NEW and allocated later
+     */
+    PARTIAL
+}
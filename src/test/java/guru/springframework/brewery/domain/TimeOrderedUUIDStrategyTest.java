@@ -0,0 +1,41 @@
+package guru.springframework.brewery.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Krzysztof Kukla
+ */
+class TimeOrderedUUIDStrategyTest {
+
+    private final TimeOrderedUUIDStrategy strategy = new TimeOrderedUUIDStrategy();
+
+    @Test
+    void generatesVersion7UUIDsOfTheCurrentTime() {
+        long before = System.currentTimeMillis();
+        UUID uuid = strategy.generateUUID(null);
+
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        assertTrue(uuid.getMostSignificantBits() >>> 16 >= before);
+        assertTrue(uuid.getMostSignificantBits() >>> 16 <= System.currentTimeMillis() + 1);
+    }
+
+    @Test
+    void generatesIncreasingUUIDs() {
+        UUID previous = strategy.generateUUID(null);
+
+        // many more than fit the sequence of a millisecond
+        for (int i = 0; i < 100000; i++) {
+            UUID uuid = strategy.generateUUID(null);
+
+            assertTrue(uuid.compareTo(previous) > 0);
+            assertTrue(uuid.toString().compareTo(previous.toString()) > 0);
+            previous = uuid;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package guru.springframework.brewery.migration;
+
+import guru.springframework.brewery.TsbbSfgBreweryApplication;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author Krzysztof Kukla
+ */
+class UUIDStorageMigrationTest {
+
+    @Test
+    void copiesCharacterIdsIntoBinaryIds() {
+        String sourceUrl = "jdbc:h2:mem:uuid-source-" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE";
+
+        try (ConfigurableApplicationContext source = new SpringApplicationBuilder(TsbbSfgBreweryApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties("spring.datasource.url=" + sourceUrl,
+                // both applications run at once
+                "spring.jmx.enabled=false")
+            .run("--sfg.brewery.uuid-storage=CHAR")) {
+            BeerOrder sourceOrder = source.getBean(BeerOrderRepository.class).findAll().get(0);
+
+            try (ConfigurableApplicationContext target = new SpringApplicationBuilder(TsbbSfgBreweryApplication.class)
+                .profiles("uuid-migration")
+                .properties(
+                    "spring.datasource.url=jdbc:h2:mem:uuid-target-" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE",
+                    "sfg.brewery.uuid-migration.source-url=" + sourceUrl,
+                    "sfg.brewery.uuid-migration.source-username=sa",
+                    "sfg.brewery.uuid-migration.batch-size=2",
+                    "spring.jmx.enabled=false")
+                .run()) {
+                JdbcTemplate sourceJdbc = source.getBean(JdbcTemplate.class);
+                JdbcTemplate targetJdbc = target.getBean(JdbcTemplate.class);
+
+                for (String table : new String[]{"BREWERY", "BEER", "BEER_INVENTORY", "CUSTOMER", "BEER_ORDER",
+                    "BEER_ORDER_LINE"}) {
+                    assertEquals(sourceJdbc.queryForObject("select count(*) from " + table, Long.class),
+                        targetJdbc.queryForObject("select count(*) from " + table, Long.class), table);
+                }
+                assertEquals("VARCHAR", sourceJdbc.queryForObject("select type_name from information_schema.columns "
+                    + "where table_name = 'BEER_ORDER' and column_name = 'ID'", String.class));
+                assertEquals("VARBINARY", targetJdbc.queryForObject("select type_name from information_schema.columns "
+                    + "where table_name = 'BEER_ORDER_LINE' and column_name = 'BEER_ID'", String.class));
+                assertEquals(Long.valueOf(16), targetJdbc.queryForObject("select max(length(beer_id)) "
+                    + "from beer_order_line", Long.class));
+
+                target.getBean(TransactionTemplate.class).execute(status -> {
+                    BeerOrder targetOrder = target.getBean(BeerOrderRepository.class)
+                        .findById(sourceOrder.getId()).orElseThrow(AssertionError::new);
+
+                    assertEquals(sourceOrder.getCustomerRef(), targetOrder.getCustomerRef());
+                    assertEquals(sourceOrder.getCustomer().getApiKey(), targetOrder.getCustomer().getApiKey());
+                    assertTrue(targetOrder.getBeerOrderLines().stream()
+                        .allMatch(line -> line.getBeer().getBeerName() != null));
+                    return null;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.config.AllocationProperties;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.BDDMockito;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+
+import java.time.Clock;
+import java.util.UUID;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@ExtendWith(MockitoExtension.class)
+class BeerOrderAdmissionServiceTest {
+
+    private static final UUID CUSTOMER_ID = UUID.randomUUID();
+
+    @Mock
+    private BeerOrderRepository beerOrderRepository;
+
+    @Mock
+    private Clock clock;
+
+    private BeerOrderAdmissionService beerOrderAdmissionService;
+
+    @BeforeEach
+    void setUp() {
+        AllocationProperties allocationProperties = new AllocationProperties();
+        allocationProperties.getAdmission().setThrottleBacklog(2000);
+        allocationProperties.getAdmission().setCustomerMaxBacklog(50);
+        allocationProperties.getAdmission().setMaxBacklog(10000);
+        allocationProperties.getAdmission().setSampleInterval(1000);
+
+        beerOrderAdmissionService = new BeerOrderAdmissionService(beerOrderRepository, allocationProperties, clock);
+    }
+
+    @Test
+    void admitsWithoutCountingCustomerOrdersBelowThrottleBacklog() {
+        givenBacklogAt(1000, 1999);
+
+        beerOrderAdmissionService.admit(CUSTOMER_ID);
+
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never())
+            .countByCustomerIdAndOrderStatus(ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void throttlesCustomerWithTooManyOrdersWaiting() {
+        givenBacklogAt(1000, 2000);
+        BDDMockito.given(beerOrderRepository.countByCustomerIdAndOrderStatus(CUSTOMER_ID, OrderStatusEnum.NEW))
+            .willReturn(49L, 50L);
+
+        beerOrderAdmissionService.admit(CUSTOMER_ID);
+        BeerOrderNotAdmittedException throttled = Assertions.assertThrows(BeerOrderNotAdmittedException.class,
+            () -> beerOrderAdmissionService.admit(CUSTOMER_ID));
+
+        Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS, throttled.getStatus());
+    }
+
+    @Test
+    void rejectsEveryOrderAboveMaxBacklogUntilDrained() {
+        givenBacklogAt(1000, 12000);
+        Assertions.assertThrows(BeerOrderNotAdmittedException.class, () -> beerOrderAdmissionService.admit(CUSTOMER_ID));
+
+        // 1000 orders drained in a second, the moving average starts at 300 orders per second
+        givenBacklogAt(2000, 11000);
+        BeerOrderNotAdmittedException rejected = Assertions.assertThrows(BeerOrderNotAdmittedException.class,
+            () -> beerOrderAdmissionService.admit(CUSTOMER_ID));
+
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+        Assertions.assertEquals(300, beerOrderAdmissionService.getDrainRate(), 0.001);
+        // 9000 orders above the throttle backlog
+        Assertions.assertEquals(30, rejected.getRetryAfterSeconds());
+
+        // not sampled again within the sample interval
+        givenBacklogAt(2500, 0);
+        Assertions.assertThrows(BeerOrderNotAdmittedException.class, () -> beerOrderAdmissionService.admit(CUSTOMER_ID));
+
+        givenBacklogAt(3000, 0);
+        beerOrderAdmissionService.admit(CUSTOMER_ID);
+    }
+
+    private void givenBacklogAt(long millis, long backlog) {
+        BDDMockito.given(clock.millis()).willReturn(millis);
+        BDDMockito.lenient().when(beerOrderRepository.countByOrderStatus(OrderStatusEnum.NEW)).thenReturn(backlog);
+    }
+}
@@ -0,0 +1,173 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.TsbbSfgBreweryApplication;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Two application contexts allocating against one H2 file database, as two instances of the application would
+ *
+ * @author Krzysztof Kukla
+ */
+class BeerOrderAllocationMultiNodeTest {
+
+    private static final String DATABASE_URL = "jdbc:h2:file:./target/h2/multi-node-" + UUID.randomUUID()
+        + ";DB_CLOSE_ON_EXIT=FALSE";
+
+    private static ConfigurableApplicationContext firstNode;
+    private static ConfigurableApplicationContext secondNode;
+
+    @BeforeAll
+    static void startNodes() {
+        firstNode = startNode("node-1", "create-drop");
+        secondNode = startNode("node-2", "none");
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        secondNode.close();
+        firstNode.close();
+    }
+
+    @Test
+    void concurrentSweepsNeverAllocateInventoryTwice() {
+        Beer beer = createBeer(337010000101L);
+        createInventory(beer, 100);
+        createInventory(beer, 100);
+
+        List<UUID> beerOrderIds = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            beerOrderIds.add(createOrder(beer, 5, null, null).getId());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> firstNode.getBean(BeerOrderAllocationService.class).runBeerOrderAllocation()),
+                CompletableFuture.runAsync(() -> secondNode.getBean(BeerOrderAllocationService.class).runBeerOrderAllocation()))
+                .join();
+        }
+
+        int allocated = execute(() -> firstNode.getBean(BeerOrderRepository.class).findAllById(beerOrderIds).stream()
+            .flatMap(beerOrder -> beerOrder.getBeerOrderLines().stream())
+            .peek(beerOrderLine -> Assertions.assertTrue(beerOrderLine.getQuantityAllocated() <= beerOrderLine.getOrderQuantity()))
+            .mapToInt(BeerOrderLine::getQuantityAllocated)
+            .sum());
+        int onHand = execute(() -> firstNode.getBean(BeerInventoryRepository.class).findAllOnHandByBeerIdIn(Set.of(beer.getId()))
+            .stream()
+            .mapToInt(BeerInventory::getQuantityOnHand)
+            .sum());
+
+        Assertions.assertTrue(allocated > 0);
+        Assertions.assertEquals(200, allocated + onHand);
+        Assertions.assertTrue(firstNode.getBean(BeerOrderRepository.class).findAllById(beerOrderIds).stream()
+            .filter(beerOrder -> beerOrder.getOrderStatus() == OrderStatusEnum.READY)
+            .count() <= 40);
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        long now = System.currentTimeMillis();
+        Beer beer = createBeer(337010000102L);
+        createInventory(beer, 100);
+
+        BeerOrder abandonedOrder = createOrder(beer, 5, "dead-node", new Timestamp(now - 60000));
+        BeerOrder leasedOrder = createOrder(beer, 5, "live-node", new Timestamp(now + 3600000));
+
+        secondNode.getBean(BeerOrderAllocationService.class).runBeerOrderAllocation();
+
+        BeerOrderRepository beerOrderRepository = secondNode.getBean(BeerOrderRepository.class);
+        BeerOrder takenOver = beerOrderRepository.findById(abandonedOrder.getId()).orElseThrow();
+        BeerOrder untouched = beerOrderRepository.findById(leasedOrder.getId()).orElseThrow();
+
+        Assertions.assertEquals(OrderStatusEnum.READY, takenOver.getOrderStatus());
+        Assertions.assertNull(takenOver.getAllocationOwner());
+        Assertions.assertEquals(OrderStatusEnum.NEW, untouched.getOrderStatus());
+        Assertions.assertEquals("live-node", untouched.getAllocationOwner());
+    }
+
+    @Test
+    void ledgerIsRefusedOnSeveralNodes() {
+        SpringApplicationBuilder ledgerNode = new SpringApplicationBuilder(TsbbSfgBreweryApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(
+                "spring.datasource.url=jdbc:h2:mem:multi-node-ledger;DB_CLOSE_ON_EXIT=FALSE",
+                "spring.jmx.enabled=false");
+
+        Exception exception = Assertions.assertThrows(Exception.class, () -> ledgerNode.run(
+            "--sfg.brewery.allocation.multi-node=true",
+            "--sfg.brewery.allocation.ledger.enabled=true"));
+
+        Assertions.assertTrue(NestedExceptionUtils.getMostSpecificCause(exception) instanceof IllegalStateException);
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId, String ddlAuto) {
+        return new SpringApplicationBuilder(TsbbSfgBreweryApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(
+                "spring.datasource.url=" + DATABASE_URL,
+                "spring.jpa.hibernate.ddl-auto=" + ddlAuto,
+                "spring.jmx.enabled=false",
+                "sfg.brewery.allocation.node-id=" + nodeId,
+                "sfg.brewery.allocation.event-driven=false",
+                "sfg.brewery.allocation.sweep-interval=" + Integer.MAX_VALUE,
+                "sfg.brewery.allocation.chunk-size=10")
+            .run("--sfg.brewery.allocation.multi-node=true");
+    }
+
+    private <T> T execute(Supplier<T> work) {
+        return firstNode.getBean(TransactionTemplate.class).execute(status -> work.get());
+    }
+
+    private Beer createBeer(Long upc) {
+        return firstNode.getBean(BeerRepository.class).save(Beer.builder()
+            .beerName("Beer " + upc)
+            .upc(upc)
+            .build());
+    }
+
+    private void createInventory(Beer beer, int quantityOnHand) {
+        firstNode.getBean(BeerInventoryRepository.class).save(BeerInventory.builder()
+            .beer(beer)
+            .quantityOnHand(quantityOnHand)
+            .build());
+    }
+
+    private BeerOrder createOrder(Beer beer, int orderQuantity, String allocationOwner, Timestamp allocationLeaseExpiry) {
+        BeerOrder beerOrder = BeerOrder.builder()
+            .orderStatus(OrderStatusEnum.NEW)
+            .allocationOwner(allocationOwner)
+            .allocationLeaseExpiry(allocationLeaseExpiry)
+            .build();
+        beerOrder.setBeerOrderLines(Set.of(BeerOrderLine.builder()
+            .beerOrder(beerOrder)
+            .beer(beer)
+            .orderQuantity(orderQuantity)
+            .quantityAllocated(0)
+            .build()));
+
+        return firstNode.getBean(BeerOrderRepository.class).save(beerOrder);
+    }
+}
@@ -0,0 +1,411 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.config.AllocationProperties;
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository.BeerOrderKey;
+import org.assertj.core.util.Lists;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.BDDMockito;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@ExtendWith(MockitoExtension.class)
+class BeerOrderAllocationServiceTest {
+
+    private static final String NODE_ID = "node-1";
+
+    @Mock
+    private BeerOrderRepository beerOrderRepository;
+
+    @Mock
+    private BeerInventoryRepository beerInventoryRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BeerOrderAllocationService beerOrderAllocationService;
+
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolTaskExecutor allocationTaskExecutor;
+
+    private Beer galaxyCat;
+    private Beer pinball;
+
+    @BeforeEach
+    void setUp() {
+        allocationTaskExecutor = new ThreadPoolTaskExecutor();
+        allocationTaskExecutor.setCorePoolSize(4);
+        allocationTaskExecutor.initialize();
+
+        meterRegistry = new SimpleMeterRegistry();
+
+        beerOrderAllocationService = createService(1);
+
+        Mockito.lenient().when(beerOrderRepository.claimForAllocation(ArgumentMatchers.any(), ArgumentMatchers.any(),
+            ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+            .thenAnswer(invocation -> invocation.<Collection<UUID>>getArgument(0).size());
+
+        galaxyCat = Beer.builder().id(UUID.randomUUID()).beerName("Galaxy Cat").build();
+        pinball = Beer.builder().id(UUID.randomUUID()).beerName("Pinball Porter").build();
+    }
+
+    @Test
+    void allocatesInventoryInOrderSequence() {
+        BeerOrderLine firstGalaxyCatLine = createLine(galaxyCat, 15);
+        BeerOrderLine firstPinballLine = createLine(pinball, 7);
+        BeerOrder firstOrder = createOrder(firstGalaxyCatLine, firstPinballLine);
+
+        BeerOrderLine secondGalaxyCatLine = createLine(galaxyCat, 20);
+        BeerOrder secondOrder = createOrder(secondGalaxyCatLine);
+
+        BeerInventory galaxyCatInventory1 = createInventory(galaxyCat, 10);
+        BeerInventory galaxyCatInventory2 = createInventory(galaxyCat, 12);
+        BeerInventory pinballInventory = createInventory(pinball, 100);
+
+        givenNewOrders(Lists.list(firstOrder, secondOrder));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(galaxyCatInventory1, galaxyCatInventory2, pinballInventory));
+
+        beerOrderAllocationService.runBeerOrderAllocation();
+
+        Assertions.assertEquals(15, firstGalaxyCatLine.getQuantityAllocated().intValue());
+        Assertions.assertEquals(7, firstPinballLine.getQuantityAllocated().intValue());
+        Assertions.assertEquals(OrderStatusEnum.READY, firstOrder.getOrderStatus());
+
+        Assertions.assertEquals(7, secondGalaxyCatLine.getQuantityAllocated().intValue());
+        Assertions.assertEquals(OrderStatusEnum.NEW, secondOrder.getOrderStatus());
+
+        Assertions.assertEquals(0, galaxyCatInventory1.getQuantityOnHand().intValue());
+        Assertions.assertEquals(0, galaxyCatInventory2.getQuantityOnHand().intValue());
+        Assertions.assertEquals(93, pinballInventory.getQuantityOnHand().intValue());
+
+        BDDMockito.then(beerInventoryRepository).should().findAllOnHandByBeerIdIn(ArgumentMatchers.any());
+        // used up rows are left for compaction
+        BDDMockito.then(beerInventoryRepository).should(BDDMockito.never()).deleteAll(ArgumentMatchers.any());
+
+        // one run, with two lines fully and one partially allocated
+        Assertions.assertEquals(1, meterRegistry.get("brewery.allocation.lines").tag("allocation", "full").summary().count());
+        Assertions.assertEquals(2, meterRegistry.get("brewery.allocation.lines").tag("allocation", "full").summary().totalAmount());
+        Assertions.assertEquals(1, meterRegistry.get("brewery.allocation.lines").tag("allocation", "partial").summary().totalAmount());
+        Assertions.assertEquals(1, meterRegistry.get("brewery.allocation.run").tag("trigger", "sweep").timer().count());
+    }
+
+    @AfterEach
+    void tearDown() {
+        allocationTaskExecutor.shutdown();
+    }
+
+    @Test
+    void parallelAllocationMatchesSequentialAllocation() {
+        List<Beer> beers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            beers.add(Beer.builder().id(UUID.randomUUID()).beerName("beer" + i).build());
+        }
+
+        List<BeerOrder> sequentialOrders = new ArrayList<>();
+        List<BeerOrder> parallelOrders = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int orderNumber = i;
+            BeerOrderLine[] lines = beers.stream()
+                .map(beer -> createLine(beer, 1 + Math.floorMod(orderNumber * 7 + beer.getBeerName().hashCode(), 13)))
+                .toArray(BeerOrderLine[]::new);
+            sequentialOrders.add(createOrder(lines));
+            parallelOrders.add(createOrder(copyLines(lines)));
+        }
+
+        List<BeerInventory> sequentialInventory = beers.stream()
+            .flatMap(beer -> List.of(createInventory(beer, 40), createInventory(beer, 35)).stream())
+            .collect(Collectors.toList());
+        List<BeerInventory> parallelInventory = sequentialInventory.stream()
+            .map(inventory -> createInventory(inventory.getBeer(), inventory.getQuantityOnHand()))
+            .collect(Collectors.toList());
+
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatus(ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keysOf(sequentialOrders), keysOf(parallelOrders));
+        BDDMockito.given(beerOrderRepository.findAllWithLinesClaimedBy(ArgumentMatchers.any(), ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(sequentialOrders, parallelOrders);
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(sequentialInventory, parallelInventory);
+
+        beerOrderAllocationService.runBeerOrderAllocation();
+        createService(4).runBeerOrderAllocation();
+
+        for (int i = 0; i < sequentialOrders.size(); i++) {
+            Assertions.assertEquals(sequentialOrders.get(i).getOrderStatus(), parallelOrders.get(i).getOrderStatus());
+            Assertions.assertEquals(allocatedByBeer(sequentialOrders.get(i)), allocatedByBeer(parallelOrders.get(i)));
+        }
+        for (int i = 0; i < sequentialInventory.size(); i++) {
+            Assertions.assertEquals(sequentialInventory.get(i).getQuantityOnHand(), parallelInventory.get(i).getQuantityOnHand());
+        }
+    }
+
+    @Test
+    void allocatePlacedOrder() {
+        BeerOrderLine line = createLine(galaxyCat, 5);
+        BeerOrder beerOrder = createOrder(line);
+
+        BDDMockito.given(beerOrderRepository.findAllWithLinesClaimedBy(List.of(beerOrder.getId()), OrderStatusEnum.NEW, NODE_ID))
+            .willReturn(Lists.list(beerOrder));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(createInventory(galaxyCat, 8)));
+
+        beerOrderAllocationService.allocateBeerOrder(beerOrder.getId());
+
+        Assertions.assertEquals(5, line.getQuantityAllocated().intValue());
+        Assertions.assertEquals(OrderStatusEnum.READY, beerOrder.getOrderStatus());
+        BDDMockito.then(beerOrderRepository).should().saveAll(Lists.list(beerOrder));
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never()).findKeysByOrderStatus(ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void orderPlacedWhileSweepHoldsLockIsAllocatedAfterChunk() {
+        BeerOrder sweptOrder = createOrder(createLine(galaxyCat, 5));
+        BeerOrderLine placedLine = createLine(galaxyCat, 3);
+        BeerOrder placedOrder = createOrder(placedLine);
+
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatus(ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keysOf(Lists.list(sweptOrder)));
+        BDDMockito.willAnswer(invocation -> {
+            // the placed order is committed while the chunk holds the lock
+            CompletableFuture.runAsync(() -> beerOrderAllocationService.allocateBeerOrder(placedOrder.getId())).join();
+            return Lists.list(sweptOrder);
+        }).given(beerOrderRepository).findAllWithLinesClaimedBy(List.of(sweptOrder.getId()), OrderStatusEnum.NEW, NODE_ID);
+        BDDMockito.willReturn(Lists.list(placedOrder))
+            .given(beerOrderRepository).findAllWithLinesClaimedBy(List.of(placedOrder.getId()), OrderStatusEnum.NEW, NODE_ID);
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(createInventory(galaxyCat, 5)), Lists.list(createInventory(galaxyCat, 3)));
+
+        beerOrderAllocationService.runBeerOrderAllocation();
+
+        Assertions.assertEquals(OrderStatusEnum.READY, sweptOrder.getOrderStatus());
+        Assertions.assertEquals(3, placedLine.getQuantityAllocated().intValue());
+        Assertions.assertEquals(OrderStatusEnum.READY, placedOrder.getOrderStatus());
+    }
+
+    @Test
+    void ordersWaitingOnBeerAreAllocatedInChunks() {
+        List<BeerOrder> beerOrders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            beerOrders.add(createOrder(createLine(galaxyCat, 5)));
+        }
+        List<BeerOrderKey> keys = keysOf(beerOrders);
+
+        BDDMockito.given(beerOrderRepository.findKeysWaitingOnBeers(ArgumentMatchers.eq(Set.of(galaxyCat.getId())),
+            ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keys.subList(0, 2));
+        BDDMockito.given(beerOrderRepository.findKeysWaitingOnBeersAfter(ArgumentMatchers.eq(Set.of(galaxyCat.getId())),
+            ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any(), ArgumentMatchers.eq(beerOrders.get(1).getId()),
+            ArgumentMatchers.any()))
+            .willReturn(keys.subList(2, 3));
+        BDDMockito.given(beerOrderRepository.findAllWithLinesClaimedBy(ArgumentMatchers.any(), ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(beerOrders.subList(0, 2), beerOrders.subList(2, 3));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(createInventory(galaxyCat, 10)), Lists.list(createInventory(galaxyCat, 5)));
+
+        createService(1, 2).allocateBeerOrdersWaitingOnBeer(galaxyCat.getId());
+
+        beerOrders.forEach(beerOrder -> Assertions.assertEquals(OrderStatusEnum.READY, beerOrder.getOrderStatus()));
+        BDDMockito.then(beerOrderRepository).should().claimForAllocation(ArgumentMatchers.eq(List.of(beerOrders.get(0).getId(),
+            beerOrders.get(1).getId())), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        BDDMockito.then(beerOrderRepository).should().claimForAllocation(ArgumentMatchers.eq(List.of(beerOrders.get(2).getId())),
+            ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void fullyAllocatedOrderSkipsInventoryLookup() {
+        BeerOrderLine line = createLine(galaxyCat, 5);
+        line.setQuantityAllocated(5);
+        BeerOrder beerOrder = createOrder(line);
+
+        givenNewOrders(Lists.list(beerOrder));
+
+        beerOrderAllocationService.runBeerOrderAllocation();
+
+        Assertions.assertEquals(OrderStatusEnum.READY, beerOrder.getOrderStatus());
+        BDDMockito.then(beerInventoryRepository).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void sweepAllocatesInChunksAfterLastKey() {
+        List<BeerOrder> beerOrders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            beerOrders.add(createOrder(createLine(galaxyCat, 5)));
+        }
+        List<BeerOrderKey> keys = keysOf(beerOrders);
+
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatus(ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keys.subList(0, 2));
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatusAfter(ArgumentMatchers.eq(OrderStatusEnum.NEW),
+            ArgumentMatchers.any(), ArgumentMatchers.eq(beerOrders.get(1).getId()), ArgumentMatchers.any()))
+            .willReturn(keys.subList(2, 3));
+        BDDMockito.given(beerOrderRepository.findAllWithLinesClaimedBy(ArgumentMatchers.any(), ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(beerOrders.subList(0, 2), beerOrders.subList(2, 3));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(createInventory(galaxyCat, 12)), Lists.list(createInventory(galaxyCat, 2)));
+
+        createService(1, 2).runBeerOrderAllocation();
+
+        Assertions.assertEquals(OrderStatusEnum.READY, beerOrders.get(0).getOrderStatus());
+        Assertions.assertEquals(OrderStatusEnum.READY, beerOrders.get(1).getOrderStatus());
+        Assertions.assertEquals(2, beerOrders.get(2).getBeerOrderLines().iterator().next().getQuantityAllocated().intValue());
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.times(2)).claimForAllocation(ArgumentMatchers.any(),
+            ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void ordersLeasedToAnotherNodeAreNotAllocated() {
+        BeerOrder beerOrder = createOrder(createLine(galaxyCat, 5));
+
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatus(ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keysOf(Lists.list(beerOrder)));
+        BDDMockito.willReturn(0).given(beerOrderRepository).claimForAllocation(ArgumentMatchers.eq(List.of(beerOrder.getId())),
+            ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.eq(NODE_ID), ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        beerOrderAllocationService.runBeerOrderAllocation();
+
+        Assertions.assertEquals(OrderStatusEnum.NEW, beerOrder.getOrderStatus());
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never())
+            .findAllWithLinesClaimedBy(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any());
+        BDDMockito.then(beerInventoryRepository).shouldHaveZeroInteractions();
+    }
+
+    @Test
+    void ordersWaitingTooLongGoAheadOfThePolicy() {
+        long now = System.currentTimeMillis();
+        BeerOrderLine starvedLine = createLine(galaxyCat, 10);
+        BeerOrder starvedOrder = createOrder(starvedLine);
+        starvedOrder.setCreatedDate(new Timestamp(now - 120000));
+
+        BeerOrderLine smallLine = createLine(galaxyCat, 2);
+        BeerOrder smallOrder = createOrder(smallLine);
+        smallOrder.setCreatedDate(new Timestamp(now));
+
+        givenNewOrders(Lists.list(starvedOrder, smallOrder));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(createInventory(galaxyCat, 10)));
+
+        createService(1, 10, StandardAllocationPolicy.SMALLEST_FIRST, 60000).runBeerOrderAllocation();
+
+        Assertions.assertEquals(OrderStatusEnum.READY, starvedOrder.getOrderStatus());
+        Assertions.assertEquals(0, smallLine.getQuantityAllocated().intValue());
+    }
+
+    private BeerOrderAllocationService createService(int parallelism) {
+        return createService(parallelism, new AllocationProperties().getChunkSize());
+    }
+
+    private BeerOrderAllocationService createService(int parallelism, int chunkSize) {
+        return createService(parallelism, chunkSize, StandardAllocationPolicy.OLDEST_FIRST, 0);
+    }
+
+    private BeerOrderAllocationService createService(int parallelism, int chunkSize, AllocationPolicy allocationPolicy,
+                                                     long maxWait) {
+        AllocationProperties allocationProperties = new AllocationProperties();
+        allocationProperties.setMaxWait(maxWait);
+        allocationProperties.setParallelism(parallelism);
+        allocationProperties.setChunkSize(chunkSize);
+        allocationProperties.setNodeId(NODE_ID);
+        return new BeerOrderAllocationService(beerOrderRepository, beerInventoryRepository, allocationProperties,
+            allocationTaskExecutor, new TransactionTemplate(transactionManager), Optional.empty(),
+            new BeerOrderAllocationMetrics(meterRegistry, beerOrderRepository, Clock.systemUTC()), allocationPolicy,
+            Clock.systemUTC());
+    }
+
+    private void givenNewOrders(List<BeerOrder> beerOrders) {
+        BDDMockito.given(beerOrderRepository.findKeysByOrderStatus(ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(keysOf(beerOrders));
+        BDDMockito.given(beerOrderRepository.findAllWithLinesClaimedBy(ArgumentMatchers.any(), ArgumentMatchers.eq(OrderStatusEnum.NEW), ArgumentMatchers.any()))
+            .willReturn(beerOrders);
+    }
+
+    private List<BeerOrderKey> keysOf(List<BeerOrder> beerOrders) {
+        return beerOrders.stream()
+            .map(beerOrder -> new BeerOrderKey() {
+                @Override
+                public UUID getId() {
+                    return beerOrder.getId();
+                }
+
+                @Override
+                public Timestamp getCreatedDate() {
+                    return beerOrder.getCreatedDate();
+                }
+            })
+            .collect(Collectors.toList());
+    }
+
+    private BeerOrderLine[] copyLines(BeerOrderLine[] lines) {
+        return List.of(lines).stream()
+            .map(line -> createLine(line.getBeer(), line.getOrderQuantity()))
+            .toArray(BeerOrderLine[]::new);
+    }
+
+    private List<String> allocatedByBeer(BeerOrder beerOrder) {
+        return beerOrder.getBeerOrderLines().stream()
+            .map(line -> line.getBeer().getBeerName() + "=" + line.getQuantityAllocated())
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    private BeerOrder createOrder(BeerOrderLine... lines) {
+        Set<BeerOrderLine> beerOrderLines = new HashSet<>(List.of(lines));
+        BeerOrder beerOrder = BeerOrder.builder()
+            .id(UUID.randomUUID())
+            .orderStatus(OrderStatusEnum.NEW)
+            .beerOrderLines(beerOrderLines)
+            .build();
+        beerOrderLines.forEach(line -> line.setBeerOrder(beerOrder));
+        return beerOrder;
+    }
+
+    private BeerOrderLine createLine(Beer beer, int orderQuantity) {
+        return BeerOrderLine.builder()
+            .id(UUID.randomUUID())
+            .beer(beer)
+            .orderQuantity(orderQuantity)
+            .quantityAllocated(0)
+            .build();
+    }
+
+    private BeerInventory createInventory(Beer beer, int quantityOnHand) {
+        return BeerInventory.builder()
+            .id(UUID.randomUUID())
+            .beer(beer)
+            .quantityOnHand(quantityOnHand)
+            .build();
+    }
+
+}
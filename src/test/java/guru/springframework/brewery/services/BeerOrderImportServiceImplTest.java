@@ -0,0 +1,100 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.model.BeerOrderImportResultDto;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+    "spring.datasource.url=jdbc:h2:mem:import-test;DB_CLOSE_ON_EXIT=FALSE",
+    "sfg.brewery.order.import.commit-interval=2",
+    "sfg.brewery.order.customer-ref-idempotency-key=true",
+    "sfg.brewery.allocation.event-driven=false",
+    "sfg.brewery.allocation.sweep-interval=2147483647"})
+class BeerOrderImportServiceImplTest {
+
+    @Autowired
+    private BeerOrderImportService beerOrderImportService;
+
+    @Autowired
+    private BeerOrderRepository beerOrderRepository;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    private UUID customerId;
+    private UUID beerId;
+
+    @BeforeEach
+    void setUp() {
+        customerId = customerRepository.save(Customer.builder()
+            .customerName("Import Customer")
+            .apiKey(UUID.randomUUID())
+            .build()).getId();
+        beerId = beerRepository.save(Beer.builder()
+            .beerName("Imported Beer")
+            .upc(337010000301L)
+            .build()).getId();
+    }
+
+    @Test
+    void importsRecordsInCommittedChunks() throws IOException {
+        long placedOrders = beerOrderRepository.count();
+        List<List<BeerOrderImportResultDto>> chunks = new ArrayList<>();
+
+        String body = String.join("\n",
+            order("import-1", customerId, beerId),
+            "{\"customerId\": ",
+            order("import-3", UUID.randomUUID(), beerId),
+            "",
+            order("import-5", customerId, UUID.randomUUID()),
+            order("import-6", customerId, beerId),
+            order("import-1", customerId, beerId),
+            order("import-6", customerId, beerId, 3));
+
+        beerOrderImportService.importOrders(new StringReader(body), chunks::add);
+
+        Assertions.assertEquals(List.of(2, 2, 2, 1), chunks.stream().map(List::size).collect(Collectors.toList()));
+
+        List<BeerOrderImportResultDto> results = chunks.stream().flatMap(List::stream).collect(Collectors.toList());
+
+        Assertions.assertEquals(List.of(1L, 2L, 3L, 5L, 6L, 7L, 8L),
+            results.stream().map(BeerOrderImportResultDto::getLine).collect(Collectors.toList()));
+        Assertions.assertEquals(List.of(201, 400, 404, 404, 201, 200, 422),
+            results.stream().map(BeerOrderImportResultDto::getStatus).collect(Collectors.toList()));
+        Assertions.assertEquals("Beer ID not found: ", results.get(3).getError().substring(0, 19));
+        Assertions.assertEquals("import-6", results.get(4).getCustomerRef());
+        Assertions.assertTrue(beerOrderRepository.findById(results.get(4).getOrderId()).isPresent());
+        Assertions.assertEquals(results.get(0).getOrderId(), results.get(5).getOrderId());
+        Assertions.assertEquals(placedOrders + 2, beerOrderRepository.count());
+    }
+
+    private static String order(String customerRef, UUID customerId, UUID beerId) {
+        return order(customerRef, customerId, beerId, 2);
+    }
+
+    private static String order(String customerRef, UUID customerId, UUID beerId, int orderQuantity) {
+        return "{\"customerId\": \"" + customerId + "\", \"customerRef\": \"" + customerRef + "\", "
+            + "\"beerOrderLines\": [{\"beerId\": \"" + beerId + "\", \"orderQuantity\": " + orderQuantity + "}]}";
+    }
+}
@@ -0,0 +1,94 @@
+package guru.springframework.brewery.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Krzysztof Kukla
+ */
+class BeerOrderIntakeLogTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("intake-log-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    void readsFromCheckpointAfterReopening() throws IOException {
+        try (BeerOrderIntakeLog intakeLog = new BeerOrderIntakeLog(directory, 1024, true)) {
+            intakeLog.append("first");
+            intakeLog.append("second");
+            intakeLog.append("third");
+
+            BeerOrderIntakeLog.Batch batch = intakeLog.read(intakeLog.getCheckpoint(), 2);
+
+            Assertions.assertEquals(List.of("first", "second"), batch.getRecords());
+            intakeLog.commit(batch.getEnd());
+        }
+
+        try (BeerOrderIntakeLog intakeLog = new BeerOrderIntakeLog(directory, 1024, true)) {
+            Assertions.assertEquals(List.of("third"), intakeLog.read(intakeLog.getCheckpoint(), 10).getRecords());
+        }
+    }
+
+    @Test
+    void cutsOffPartiallyWrittenRecord() throws IOException {
+        try (BeerOrderIntakeLog intakeLog = new BeerOrderIntakeLog(directory, 1024, true)) {
+            intakeLog.append("first");
+        }
+
+        // crashed while appending the second record
+        Files.write(segments().get(0), "{\"orderId\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (BeerOrderIntakeLog intakeLog = new BeerOrderIntakeLog(directory, 1024, true)) {
+            intakeLog.append("second");
+
+            Assertions.assertEquals(List.of("first", "second"),
+                intakeLog.read(intakeLog.getCheckpoint(), 10).getRecords());
+        }
+    }
+
+    @Test
+    void deletesConsumedSegments() throws IOException {
+        try (BeerOrderIntakeLog intakeLog = new BeerOrderIntakeLog(directory, 16, false)) {
+            for (int i = 0; i < 5; i++) {
+                intakeLog.append("record-" + i);
+            }
+
+            Assertions.assertEquals(5, segments().size());
+
+            BeerOrderIntakeLog.Batch batch = intakeLog.read(intakeLog.getCheckpoint(), 4);
+
+            Assertions.assertEquals(List.of("record-0", "record-1", "record-2", "record-3"), batch.getRecords());
+            intakeLog.commit(batch.getEnd());
+
+            Assertions.assertEquals(List.of("record-4"), intakeLog.read(batch.getEnd(), 10).getRecords());
+            Assertions.assertEquals(2, segments().size());
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderIntakeDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import guru.springframework.brewery.web.model.IntakeStatusEnum;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+    "spring.datasource.url=jdbc:h2:mem:intake-test;DB_CLOSE_ON_EXIT=FALSE",
+    "sfg.brewery.order.intake.enabled=true",
+    "sfg.brewery.order.intake.directory=target/intake-test/${random.uuid}",
+    "sfg.brewery.order.intake.poll-interval=2147483647",
+    "sfg.brewery.allocation.event-driven=false",
+    "sfg.brewery.allocation.sweep-interval=2147483647"})
+class BeerOrderIntakeServiceTest {
+
+    @Autowired
+    private BeerOrderIntakeService beerOrderIntakeService;
+
+    @Autowired
+    private BeerOrderRepository beerOrderRepository;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    private UUID customerId;
+
+    @BeforeEach
+    void setUp() {
+        customerId = customerRepository.save(Customer.builder()
+            .customerName("Intake Customer")
+            .apiKey(UUID.randomUUID())
+            .build()).getId();
+    }
+
+    @Test
+    void placesQueuedOrdersWithTheirAcceptedIds() {
+        UUID beerId = beerRepository.save(Beer.builder()
+            .beerName("Queued Beer")
+            .upc(337010000401L)
+            .build()).getId();
+
+        BeerOrderIntakeDto queued = beerOrderIntakeService.queueOrder(customerId, order("intake-1", beerId), "key-1");
+        BeerOrderIntakeDto repeated = beerOrderIntakeService.queueOrder(customerId, order("intake-1", beerId), "key-1");
+        BeerOrderIntakeDto unknownBeer = beerOrderIntakeService.queueOrder(customerId,
+            order("intake-2", UUID.randomUUID()), null);
+
+        Assertions.assertEquals(queued.getOrderId(), repeated.getOrderId());
+        Assertions.assertEquals(IntakeStatusEnum.QUEUED,
+            beerOrderIntakeService.getIntake(customerId, queued.getOrderId()).getStatus());
+        Assertions.assertEquals(2, beerOrderIntakeService.getQueued());
+
+        beerOrderIntakeService.placeQueuedOrders();
+
+        Assertions.assertEquals(0, beerOrderIntakeService.getQueued());
+        Assertions.assertEquals(IntakeStatusEnum.PLACED,
+            beerOrderIntakeService.getIntake(customerId, queued.getOrderId()).getStatus());
+        Assertions.assertEquals(IntakeStatusEnum.REJECTED,
+            beerOrderIntakeService.getIntake(customerId, unknownBeer.getOrderId()).getStatus());
+
+        BeerOrder beerOrder = beerOrderRepository.findById(queued.getOrderId()).orElseThrow();
+        Assertions.assertEquals("intake-1", beerOrder.getCustomerRef());
+        Assertions.assertEquals(1, beerOrder.getBeerOrderLines().size());
+    }
+
+    @Test
+    void unknownOrderIsNotFound() {
+        Assertions.assertThrows(BeerOrderIntakeNotFoundException.class,
+            () -> beerOrderIntakeService.getIntake(customerId, UUID.randomUUID()));
+    }
+
+    @Test
+    void orderWithoutLinesIsNotQueued() {
+        Assertions.assertThrows(BeerOrderInvalidException.class,
+            () -> beerOrderIntakeService.queueOrder(customerId, BeerOrderDto.builder().customerRef("empty").build(), null));
+    }
+
+    private static BeerOrderDto order(String customerRef, UUID beerId) {
+        return BeerOrderDto.builder()
+            .customerRef(customerRef)
+            .beerOrderLines(Lists.list(BeerOrderLineDto.builder()
+                .beerId(beerId)
+                .orderQuantity(3)
+                .build()))
+            .build();
+    }
+}
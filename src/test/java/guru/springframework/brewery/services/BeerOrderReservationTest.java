@@ -0,0 +1,181 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.events.BeerOrderStatusChangeEvent;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import guru.springframework.brewery.web.model.OrderStatusEnum;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Reserving stock while placing orders, against the inventory ledger
+ *
+ * @author Krzysztof Kukla
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+    "spring.datasource.url=jdbc:h2:mem:reservation-test;DB_CLOSE_ON_EXIT=FALSE",
+    "sfg.brewery.allocation.ledger.enabled=true",
+    "sfg.brewery.allocation.event-driven=false",
+    "sfg.brewery.allocation.sweep-interval=2147483647"})
+class BeerOrderReservationTest {
+
+    @Autowired
+    private BeerOrderService beerOrderService;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private BeerInventoryRepository beerInventoryRepository;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ConfigurableApplicationContext applicationContext;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private UUID customerId;
+
+    @BeforeEach
+    void setUp() {
+        customerId = customerRepository.save(Customer.builder()
+            .customerName("Reservation Customer")
+            .apiKey(UUID.randomUUID())
+            .build()).getId();
+    }
+
+    @Test
+    void concurrentOrdersNeverReserveMoreThanOnHand() {
+        Beer beer = createBeer(337010000201L, 100);
+        AtomicInteger rejected = new AtomicInteger();
+        List<CompletableFuture<BeerOrderDto>> placedOrders = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int i = 0; i < 50; i++) {
+                placedOrders.add(CompletableFuture.supplyAsync(() -> placeOrder(beer, 3, ReservationModeEnum.ALL_OR_NOTHING),
+                    executorService).exceptionally(e -> {
+                    Assertions.assertTrue(e instanceof CompletionException && e.getCause() instanceof BeerOrderRejectedException);
+                    rejected.incrementAndGet();
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(placedOrders.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executorService.shutdown();
+        }
+
+        long ready = placedOrders.stream()
+            .map(CompletableFuture::join)
+            .filter(beerOrder -> beerOrder != null && beerOrder.getOrderStatus() == OrderStatusEnum.READY)
+            .count();
+
+        Assertions.assertEquals(33, ready);
+        Assertions.assertEquals(17, rejected.get());
+        Assertions.assertEquals(1, inventoryLedger.getQuantityOnHand(beer.getId()));
+
+        inventoryLedger.flush();
+
+        Assertions.assertEquals(1, beerInventoryRepository.findAllOnHandByBeerIdIn(Set.of(beer.getId())).stream()
+            .mapToInt(BeerInventory::getQuantityOnHand)
+            .sum());
+    }
+
+    @Test
+    void partialReservationLeavesOrderNew() {
+        Beer beer = createBeer(337010000202L, 5);
+
+        BeerOrderDto partiallyReserved = placeOrder(beer, 8, ReservationModeEnum.PARTIAL);
+
+        Assertions.assertEquals(OrderStatusEnum.NEW, partiallyReserved.getOrderStatus());
+        Assertions.assertEquals(5, partiallyReserved.getBeerOrderLines().get(0).getQuantityAllocated().intValue());
+        Assertions.assertEquals(beer.getId(), partiallyReserved.getBeerOrderLines().get(0).getBeerId());
+        Assertions.assertThrows(BeerOrderRejectedException.class,
+            () -> placeOrder(beer, 1, ReservationModeEnum.ALL_OR_NOTHING));
+        Assertions.assertEquals(0, inventoryLedger.getQuantityOnHand(beer.getId()));
+    }
+
+    @Test
+    void orderReservedInFullReportsItsStatusChange() {
+        Beer beer = createBeer(337010000204L, 5);
+        List<BeerOrderStatusChangeEvent> statusChanges = new CopyOnWriteArrayList<>();
+        applicationContext.addApplicationListener((ApplicationListener<BeerOrderStatusChangeEvent>) statusChanges::add);
+        double readyOrders = meterRegistry.get("brewery.order.placed.ready").timer().count();
+
+        BeerOrderDto reserved = placeOrder(beer, 5, ReservationModeEnum.ALL_OR_NOTHING);
+
+        Assertions.assertEquals(OrderStatusEnum.READY, reserved.getOrderStatus());
+        Assertions.assertEquals(List.of(reserved.getId()), statusChanges.stream()
+            .map(event -> event.getBeerOrder().getId())
+            .collect(Collectors.toList()));
+        Assertions.assertEquals(readyOrders + 1, meterRegistry.get("brewery.order.placed.ready").timer().count());
+    }
+
+    @Test
+    void revisionCountsVersionsOfOrderAndLines() {
+        Beer beer = createBeer(337010000203L, 5);
+
+        BeerOrderDto reserved = placeOrder(beer, 2, ReservationModeEnum.ALL_OR_NOTHING);
+        BeerOrderDto loaded = beerOrderService.getOrderById(customerId, reserved.getId());
+
+        Assertions.assertEquals(Optional.of((long) loaded.getVersion() + loaded.getBeerOrderLines().get(0).getVersion()),
+            beerOrderService.findOrderRevision(customerId, reserved.getId()));
+        Assertions.assertEquals(Optional.empty(), beerOrderService.findOrderRevision(UUID.randomUUID(), reserved.getId()));
+    }
+
+    private Beer createBeer(long upc, int quantityOnHand) {
+        Beer beer = beerRepository.save(Beer.builder()
+            .beerName("Reserved Beer " + upc)
+            .upc(upc)
+            .build());
+        beerInventoryRepository.save(BeerInventory.builder()
+            .beer(beer)
+            .quantityOnHand(quantityOnHand)
+            .build());
+        inventoryLedger.reconcile(Set.of(beer.getId()));
+        return beer;
+    }
+
+    private BeerOrderDto placeOrder(Beer beer, int orderQuantity, ReservationModeEnum reservationMode) {
+        return beerOrderService.placeOrder(customerId, BeerOrderDto.builder()
+            .customerRef("reservation-" + UUID.randomUUID())
+            .beerOrderLines(Lists.list(BeerOrderLineDto.builder()
+                .beerId(beer.getId())
+                .orderQuantity(orderQuantity)
+                .build()))
+            .build(), reservationMode);
+    }
+}
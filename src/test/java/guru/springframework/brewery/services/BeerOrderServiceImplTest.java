@@ -0,0 +1,324 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.Customer;
+import guru.springframework.brewery.domain.OrderStatusEnum;
+import guru.springframework.brewery.repositories.BeerOrderLineRepository;
+import guru.springframework.brewery.repositories.BeerOrderLineRow;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository.BeerOrderKey;
+import guru.springframework.brewery.repositories.BeerOrderRow;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.repositories.CustomerRepository;
+import guru.springframework.brewery.web.mappers.BeerOrderMapper;
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
+import guru.springframework.brewery.web.model.BeerOrderDto;
+import guru.springframework.brewery.web.model.BeerOrderLineDto;
+import guru.springframework.brewery.web.model.BeerOrderPagedList;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.util.Lists;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.BDDMockito;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@ExtendWith(MockitoExtension.class)
+class BeerOrderServiceImplTest {
+
+    @Mock
+    private BeerOrderRepository beerOrderRepository;
+
+    @Mock
+    private BeerOrderLineRepository beerOrderLineRepository;
+
+    @Mock
+    private CustomerRepository customerRepository;
+
+    @Mock
+    private BeerRepository beerRepository;
+
+    @Mock
+    private BeerOrderMapper beerOrderMapper;
+
+    @Mock
+    private ApplicationEventPublisher publisher;
+
+    private BeerOrderServiceImpl beerOrderService;
+
+    private Customer customer;
+    private Beer mangoBobs;
+    private Beer galaxyCat;
+
+    @BeforeEach
+    void setUp() {
+        beerOrderService = new BeerOrderServiceImpl(beerOrderRepository, beerOrderLineRepository, customerRepository, beerRepository,
+            beerOrderMapper, publisher, Optional.empty(), new BeerOrderAllocationMetrics(new SimpleMeterRegistry(),
+            beerOrderRepository, Clock.systemUTC()), 1000, true, 1000, 60000);
+
+        customer = Customer.builder().id(UUID.randomUUID()).build();
+        mangoBobs = Beer.builder().id(UUID.randomUUID()).beerName("Mango Bobs").build();
+        galaxyCat = Beer.builder().id(UUID.randomUUID()).beerName("Galaxy Cat").build();
+
+        BDDMockito.lenient().when(customerRepository.findById(customer.getId())).thenReturn(Optional.of(customer));
+        BDDMockito.lenient().when(beerOrderRepository.saveAndFlush(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+        BDDMockito.lenient().when(beerOrderMapper.beerOrderToDto(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> BeerOrderDto.builder()
+                .customerRef(invocation.<BeerOrder>getArgument(0).getCustomerRef())
+                .beerOrderLines(invocation.<BeerOrder>getArgument(0).getBeerOrderLines().stream()
+                    .map(line -> BeerOrderLineDto.builder()
+                        .beerId(line.getBeer().getId())
+                        .orderQuantity(line.getOrderQuantity())
+                        .build())
+                    .collect(Collectors.toList()))
+                .build());
+        BDDMockito.lenient().when(beerOrderMapper.beerOrderRowToDto(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> BeerOrderDto.builder()
+                .customerRef(invocation.<BeerOrderRow>getArgument(0).getCustomerRef())
+                .build());
+    }
+
+    @Test
+    void resolvesBeersOfAllLinesWithOneQuery() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId(), galaxyCat.getId(), mangoBobs.getId());
+        Set<UUID> queriedBeerIds = new HashSet<>();
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willAnswer(invocation -> {
+            Iterable<UUID> beerIds = invocation.getArgument(0);
+            beerIds.forEach(queriedBeerIds::add);
+            return Lists.list(mangoBobs, galaxyCat);
+        });
+
+        beerOrderService.placeOrder(customer.getId(), beerOrderDto);
+
+        Assertions.assertEquals(Set.of(mangoBobs.getId(), galaxyCat.getId()), queriedBeerIds);
+        BDDMockito.then(beerRepository).should(BDDMockito.never()).findById(ArgumentMatchers.any());
+
+        // known beers are only referenced by the next order
+        BDDMockito.given(beerRepository.getOne(mangoBobs.getId())).willReturn(mangoBobs);
+        beerOrderService.placeOrder(customer.getId(), givenOrderFor(mangoBobs.getId()));
+
+        BDDMockito.then(beerRepository).should().findAllById(ArgumentMatchers.any());
+    }
+
+    @Test
+    void unknownBeerFailsOrder() {
+        UUID unknownBeerId = UUID.randomUUID();
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId(), unknownBeerId);
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+
+        BeerOrderInvalidException exception = Assertions.assertThrows(BeerOrderInvalidException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), beerOrderDto));
+
+        Assertions.assertEquals("Beer ID not found: " + unknownBeerId, exception.getMessage());
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never()).saveAndFlush(ArgumentMatchers.any());
+    }
+
+    @Test
+    void lineWithoutBeerIsInvalid() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId(), null);
+
+        Assertions.assertThrows(BeerOrderInvalidException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), beerOrderDto));
+
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never()).saveAndFlush(ArgumentMatchers.any());
+    }
+
+    @Test
+    void reservationWithoutLedgerIsInvalid() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId());
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+
+        Assertions.assertThrows(BeerOrderInvalidException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), beerOrderDto, ReservationModeEnum.ALL_OR_NOTHING));
+
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never()).saveAndFlush(ArgumentMatchers.any());
+    }
+
+    @Test
+    void repeatedOrderReturnsOrderPlacedFirst() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId());
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+
+        BeerOrderDto placedBeerOrder = beerOrderService.placeOrder(customer.getId(), beerOrderDto);
+        BeerOrderDto repeatedBeerOrder = beerOrderService.placeOrder(customer.getId(), beerOrderDto);
+
+        Assertions.assertSame(placedBeerOrder, repeatedBeerOrder);
+        BDDMockito.then(beerOrderRepository).should().saveAndFlush(ArgumentMatchers.any());
+        // the repeated request is answered from the recently placed orders
+        BDDMockito.then(beerOrderRepository).should()
+            .findByCustomerIdAndIdempotencyKey(customer.getId(), beerOrderDto.getCustomerRef());
+    }
+
+    @Test
+    void concurrentOrderWithSameKeyConflicts() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId());
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+        BDDMockito.given(beerOrderRepository.saveAndFlush(ArgumentMatchers.any()))
+            .willThrow(violationOf("BEER_ORDER_CUSTOMER_IDEMPOTENCY_KEY_UK_INDEX_8 ON PUBLIC.BEER_ORDER"));
+
+        Assertions.assertThrows(BeerOrderConflictException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), beerOrderDto));
+    }
+
+    @Test
+    void otherViolationIsNotAConflict() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId());
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+        BDDMockito.given(beerOrderRepository.saveAndFlush(ArgumentMatchers.any()))
+            .willThrow(violationOf("FK_BEER_ORDER_CUSTOMER_INDEX_A ON PUBLIC.BEER_ORDER"));
+
+        Assertions.assertThrows(DataIntegrityViolationException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), beerOrderDto));
+    }
+
+    @Test
+    void repeatedKeyWithOtherLinesIsRejected() {
+        BeerOrderDto beerOrderDto = givenOrderFor(mangoBobs.getId());
+        BDDMockito.given(beerRepository.findAllById(ArgumentMatchers.any())).willReturn(Lists.list(mangoBobs));
+        beerOrderService.placeOrder(customer.getId(), beerOrderDto);
+
+        BeerOrderDto otherBeerOrderDto = BeerOrderDto.builder()
+            .customerRef(beerOrderDto.getCustomerRef())
+            .beerOrderLines(Lists.list(BeerOrderLineDto.builder().beerId(galaxyCat.getId()).orderQuantity(1).build()))
+            .build();
+
+        Assertions.assertThrows(BeerOrderKeyReusedException.class,
+            () -> beerOrderService.placeOrder(customer.getId(), otherBeerOrderDto));
+        BDDMockito.then(beerOrderRepository).should().saveAndFlush(ArgumentMatchers.any());
+    }
+
+    @Test
+    void listsPageOfOrderIdsWithTheirOrders() {
+        BeerOrderRow first = rowOf("first");
+        BeerOrderRow second = rowOf("second");
+        BeerOrderLineRow line = new BeerOrderLineRow(UUID.randomUUID(), 0L, null, null, first.getId(),
+            mangoBobs.getId(), 2, 0);
+        BeerOrderLineDto lineDto = BeerOrderLineDto.builder().beerId(mangoBobs.getId()).orderQuantity(2).build();
+        PageRequest pageRequest = PageRequest.of(1, 2);
+        BDDMockito.given(customerRepository.existsById(customer.getId())).willReturn(true);
+        BDDMockito.given(beerOrderRepository.findIdsByCustomerId(customer.getId(), pageRequest))
+            .willReturn(new PageImpl<>(Lists.list(first.getId(), second.getId()), pageRequest, 4));
+        BDDMockito.given(beerOrderRepository.findRowsByIdIn(Lists.list(first.getId(), second.getId())))
+            .willReturn(Lists.list(second, first));
+        BDDMockito.given(beerOrderLineRepository.findRowsByBeerOrderIdIn(Lists.list(first.getId(), second.getId())))
+            .willReturn(Lists.list(line));
+        BDDMockito.given(beerOrderMapper.beerOrderLineRowToDto(line)).willReturn(lineDto);
+
+        BeerOrderPagedList beerOrderPagedList = beerOrderService.listOrders(customer.getId(), pageRequest);
+
+        Assertions.assertEquals(Lists.list("first", "second"), beerOrderPagedList.getContent().stream()
+            .map(BeerOrderDto::getCustomerRef)
+            .collect(Collectors.toList()));
+        Assertions.assertEquals(Lists.list(lineDto), beerOrderPagedList.getContent().get(0).getBeerOrderLines());
+        Assertions.assertEquals(Lists.emptyList(), beerOrderPagedList.getContent().get(1).getBeerOrderLines());
+        Assertions.assertEquals(4, beerOrderPagedList.getTotalElements());
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never())
+            .findAllByCustomer(ArgumentMatchers.any(), ArgumentMatchers.any());
+        BDDMockito.then(beerOrderMapper).should(BDDMockito.never()).beerOrderToDto(ArgumentMatchers.any());
+    }
+
+    @Test
+    void walksOrdersWithCursorOfLastOrderOfPage() {
+        BeerOrderRow first = rowOf("first");
+        BeerOrderRow second = rowOf("second");
+        BeerOrderRow third = rowOf("third");
+        Timestamp createdDate = Timestamp.valueOf("2019-03-01 10:15:30.123456789");
+        BDDMockito.given(customerRepository.existsById(customer.getId())).willReturn(true);
+        BDDMockito.given(beerOrderRepository.findKeysByCustomerId(customer.getId(), PageRequest.of(0, 3)))
+            .willReturn(Lists.list(keyOf(first, createdDate), keyOf(second, createdDate), keyOf(third, createdDate)));
+        BDDMockito.given(beerOrderRepository.findKeysByCustomerIdAfter(customer.getId(), createdDate, second.getId(),
+            PageRequest.of(0, 3))).willReturn(Lists.list(keyOf(third, createdDate)));
+        BDDMockito.given(beerOrderRepository.findRowsByIdIn(ArgumentMatchers.any()))
+            .willReturn(Lists.list(second, first, third));
+
+        BeerOrderCursorPage firstPage = beerOrderService.listOrders(customer.getId(), null, 2);
+        BeerOrderCursorPage lastPage = beerOrderService.listOrders(customer.getId(), firstPage.getNextCursor(), 2);
+
+        Assertions.assertEquals(Lists.list("first", "second"), firstPage.getContent().stream()
+            .map(BeerOrderDto::getCustomerRef)
+            .collect(Collectors.toList()));
+        Assertions.assertEquals(Lists.list("third"), lastPage.getContent().stream()
+            .map(BeerOrderDto::getCustomerRef)
+            .collect(Collectors.toList()));
+        Assertions.assertNull(lastPage.getNextCursor());
+        BDDMockito.then(beerOrderRepository).should(BDDMockito.never())
+            .findIdsByCustomerId(ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        Assertions.assertThrows(BeerOrderCursorInvalidException.class,
+            () -> beerOrderService.listOrders(customer.getId(), "not-a-cursor", 2));
+    }
+
+    private BeerOrderRow rowOf(String customerRef) {
+        return new BeerOrderRow(UUID.randomUUID(), 0L, null, null, customer.getId(), customerRef, OrderStatusEnum.NEW,
+            null);
+    }
+
+    private DataIntegrityViolationException violationOf(String constraintName) {
+        return new DataIntegrityViolationException("could not execute statement",
+            new ConstraintViolationException("could not execute statement", new SQLException(), constraintName));
+    }
+
+    private BeerOrderKey keyOf(BeerOrderRow beerOrder, Timestamp createdDate) {
+        return new BeerOrderKey() {
+            @Override
+            public UUID getId() {
+                return beerOrder.getId();
+            }
+
+            @Override
+            public Timestamp getCreatedDate() {
+                return createdDate;
+            }
+        };
+    }
+
+    private BeerOrderDto givenOrderFor(UUID... beerIds) {
+        BeerOrderDto beerOrderDto = BeerOrderDto.builder()
+            .customerRef(UUID.randomUUID().toString())
+            .beerOrderLines(Stream.of(beerIds)
+                .map(beerId -> BeerOrderLineDto.builder().beerId(beerId).orderQuantity(1).build())
+                .collect(Collectors.toList()))
+            .build();
+        Set<BeerOrderLine> beerOrderLines = Stream.of(beerIds)
+            .map(beerId -> BeerOrderLine.builder()
+                .beer(Beer.builder().id(beerId).build())
+                .orderQuantity(1)
+                .build())
+            .collect(Collectors.toCollection(HashSet::new));
+
+        BDDMockito.given(beerOrderMapper.dtoToBeerOrder(beerOrderDto))
+            .willReturn(BeerOrder.builder()
+                .customerRef(beerOrderDto.getCustomerRef())
+                .beerOrderLines(beerOrderLines)
+                .build());
+        return beerOrderDto;
+    }
+}
@@ -0,0 +1,81 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.repositories.BeerRepository;
+import guru.springframework.brewery.web.model.BeerDto;
+import guru.springframework.brewery.web.model.BeerPagedList;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.math.BigDecimal;
+
+/**
+ * The beer catalog cache, against the database
+ *
+ * @author Krzysztof Kukla
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+    "spring.datasource.url=jdbc:h2:mem:beer-catalog-test;DB_CLOSE_ON_EXIT=FALSE"})
+class BeerServiceImplTest {
+
+    @Autowired
+    private BeerService beerService;
+
+    @Autowired
+    private BeerRepository beerRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void repeatedReadIsAnsweredFromCache() {
+        Beer beer = createBeer(337010000301L);
+        double hits = cacheHits("beer.catalog.beers");
+
+        BeerDto beerDto = beerService.findBeerById(beer.getId());
+
+        Assertions.assertSame(beerDto, beerService.findBeerById(beer.getId()));
+        Assertions.assertEquals(hits + 1, cacheHits("beer.catalog.beers"));
+        Assertions.assertEquals(beerDto.getVersion().longValue(), beerService.findBeerVersion(beer.getId()).get().longValue());
+    }
+
+    @Test
+    void cachedBeerWithoutVersionIsAtVersionZero() {
+        Beer beer = createBeer(337010000303L);
+        beerService.findBeerById(beer.getId()).setVersion(null);
+
+        Assertions.assertEquals(0L, beerService.findBeerVersion(beer.getId()).get().longValue());
+    }
+
+    @Test
+    void savedBeerEvictsItselfAndPages() {
+        Beer beer = createBeer(337010000302L);
+        String beerName = beer.getBeerName();
+
+        Assertions.assertEquals(1, beerService.listBeers(beerName, null, PageRequest.of(0, 25)).getTotalElements());
+        Assertions.assertNull(beerService.findBeerById(beer.getId()).getPrice());
+
+        beer.setBeerName(beerName + " Renamed");
+        beer.setPrice(new BigDecimal("9.99"));
+        beerRepository.save(beer);
+
+        BeerPagedList beerPagedList = beerService.listBeers(beerName, null, PageRequest.of(0, 25));
+        Assertions.assertEquals(0, beerPagedList.getTotalElements());
+        Assertions.assertEquals(0, new BigDecimal("9.99").compareTo(beerService.findBeerById(beer.getId()).getPrice()));
+    }
+
+    private Beer createBeer(long upc) {
+        return beerRepository.save(Beer.builder()
+            .beerName("Catalog Beer " + upc)
+            .upc(upc)
+            .build());
+    }
+
+    private double cacheHits(String cache) {
+        return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", "hit").functionCounter().count();
+    }
+}
@@ -0,0 +1,68 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import guru.springframework.brewery.repositories.BeerOrderRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.BDDMockito;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.util.UUID;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@ExtendWith(MockitoExtension.class)
+class InventoryCompactionServiceTest {
+
+    @Mock
+    private BeerInventoryRepository beerInventoryRepository;
+
+    @Mock
+    private BeerOrderRepository beerOrderRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private MeterRegistry meterRegistry;
+
+    private InventoryCompactionService inventoryCompactionService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        inventoryCompactionService = new InventoryCompactionService(beerInventoryRepository,
+            new TransactionTemplate(transactionManager), new BeerOrderAllocationMetrics(meterRegistry, beerOrderRepository,
+            Clock.systemUTC()));
+    }
+
+    @Test
+    void mergesRowsOfBeerIntoOldestRow() {
+        Beer galaxyCat = Beer.builder().id(UUID.randomUUID()).beerName("Galaxy Cat").build();
+        BeerInventory oldest = BeerInventory.builder().id(UUID.randomUUID()).beer(galaxyCat).quantityOnHand(3).build();
+        BeerInventory newer = BeerInventory.builder().id(UUID.randomUUID()).beer(galaxyCat).quantityOnHand(10).build();
+        BeerInventory newest = BeerInventory.builder().id(UUID.randomUUID()).beer(galaxyCat).quantityOnHand(7).build();
+
+        BDDMockito.given(beerInventoryRepository.deleteAllUsedUp()).willReturn(4);
+        BDDMockito.given(beerInventoryRepository.findBeerIdsWithSeveralRowsOnHand()).willReturn(Lists.list(galaxyCat.getId()));
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(Lists.list(galaxyCat.getId())))
+            .willReturn(Lists.list(oldest, newer, newest));
+
+        inventoryCompactionService.compact();
+
+        Assertions.assertEquals(20, oldest.getQuantityOnHand().intValue());
+        BDDMockito.then(beerInventoryRepository).should().deleteAll(Lists.list(newer, newest));
+        Assertions.assertEquals(6, meterRegistry.get("brewery.allocation.inventory.deleted").counter().count());
+    }
+}
@@ -0,0 +1,143 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerInventory;
+import guru.springframework.brewery.repositories.BeerInventoryRepository;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.BDDMockito;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@ExtendWith(MockitoExtension.class)
+class InventoryLedgerTest {
+
+    @Mock
+    private BeerInventoryRepository beerInventoryRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private InventoryLedger inventoryLedger;
+
+    private Beer galaxyCat;
+
+    @BeforeEach
+    void setUp() {
+        inventoryLedger = new InventoryLedger(beerInventoryRepository, new TransactionTemplate(transactionManager));
+
+        galaxyCat = Beer.builder().id(UUID.randomUUID()).beerName("Galaxy Cat").build();
+
+        BDDMockito.given(beerInventoryRepository.findQuantityOnHandByBeer())
+            .willReturn(Lists.list(createBeerQuantity(galaxyCat.getId(), 22L)));
+        inventoryLedger.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void takesNoMoreThanOnHand() {
+        InventoryLedger.Reservation reservation = inventoryLedger.reserve();
+
+        Assertions.assertEquals(15, reservation.take(galaxyCat.getId(), 15));
+        Assertions.assertEquals(7, reservation.take(galaxyCat.getId(), 20));
+        Assertions.assertEquals(0, inventoryLedger.getQuantityOnHand(galaxyCat.getId()));
+    }
+
+    @Test
+    void rolledBackReservationReturnsStock() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        InventoryLedger.Reservation reservation = inventoryLedger.reserve();
+        reservation.take(galaxyCat.getId(), 15);
+        reservation.complete();
+
+        Assertions.assertEquals(7, inventoryLedger.getQuantityOnHand(galaxyCat.getId()));
+
+        TransactionSynchronizationManager.getSynchronizations()
+            .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        Assertions.assertEquals(22, inventoryLedger.getQuantityOnHand(galaxyCat.getId()));
+    }
+
+    @Test
+    void flushWritesCommittedQuantitiesToRows() {
+        BeerInventory inventory1 = createInventory(10);
+        BeerInventory inventory2 = createInventory(12);
+
+        BDDMockito.given(beerInventoryRepository.findAllOnHandByBeerIdIn(ArgumentMatchers.<Collection<UUID>>any()))
+            .willReturn(Lists.list(inventory1, inventory2));
+
+        InventoryLedger.Reservation reservation = inventoryLedger.reserve();
+        reservation.take(galaxyCat.getId(), 15);
+        reservation.complete();
+
+        inventoryLedger.flush();
+
+        Assertions.assertEquals(0, inventory1.getQuantityOnHand().intValue());
+        Assertions.assertEquals(7, inventory2.getQuantityOnHand().intValue());
+
+        // the rows now match the ledger, reconciling keeps the quantity on hand
+        BDDMockito.given(beerInventoryRepository.findQuantityOnHandByBeerIdIn(ArgumentMatchers.any()))
+            .willReturn(Lists.list(createBeerQuantity(galaxyCat.getId(), 7L)));
+        inventoryLedger.reconcile(Lists.list(galaxyCat.getId()));
+
+        Assertions.assertEquals(7, inventoryLedger.getQuantityOnHand(galaxyCat.getId()));
+    }
+
+    @Test
+    void reconcileKeepsUnflushedQuantitiesTaken() {
+        InventoryLedger.Reservation reservation = inventoryLedger.reserve();
+        reservation.take(galaxyCat.getId(), 15);
+        reservation.complete();
+
+        // 30 added to the rows, the 15 taken are not flushed yet
+        BDDMockito.given(beerInventoryRepository.findQuantityOnHandByBeerIdIn(ArgumentMatchers.any()))
+            .willReturn(Lists.list(createBeerQuantity(galaxyCat.getId(), 52L)));
+        inventoryLedger.reconcile(Lists.list(galaxyCat.getId()));
+
+        Assertions.assertEquals(37, inventoryLedger.getQuantityOnHand(galaxyCat.getId()));
+    }
+
+    private BeerInventory createInventory(int quantityOnHand) {
+        return BeerInventory.builder()
+            .id(UUID.randomUUID())
+            .beer(galaxyCat)
+            .quantityOnHand(quantityOnHand)
+            .build();
+    }
+
+    private BeerInventoryRepository.BeerQuantity createBeerQuantity(UUID beerId, Long quantity) {
+        return new BeerInventoryRepository.BeerQuantity() {
+            @Override
+            public UUID getBeerId() {
+                return beerId;
+            }
+
+            @Override
+            public Long getQuantity() {
+                return quantity;
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package guru.springframework.brewery.services;
+
+import guru.springframework.brewery.domain.Beer;
+import guru.springframework.brewery.domain.BeerOrder;
+import guru.springframework.brewery.domain.BeerOrderLine;
+import guru.springframework.brewery.domain.Customer;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * @author Krzysztof Kukla
+ */
+class StandardAllocationPolicyTest {
+
+    private final Beer beer = Beer.builder().id(UUID.randomUUID()).build();
+    private final Customer bigCustomer = Customer.builder().id(UUID.randomUUID()).build();
+    private final Customer smallCustomer = Customer.builder().id(UUID.randomUUID()).build();
+
+    @Test
+    void oldestFirst() {
+        BeerOrder newest = createOrder(bigCustomer, 3, 1);
+        BeerOrder oldest = createOrder(bigCustomer, 1, 50);
+        BeerOrder middle = createOrder(smallCustomer, 2, 5);
+
+        Assertions.assertEquals(List.of(oldest, middle, newest),
+            StandardAllocationPolicy.OLDEST_FIRST.prioritize(Lists.list(newest, oldest, middle)));
+    }
+
+    @Test
+    void smallestFirst() {
+        BeerOrder large = createOrder(bigCustomer, 1, 50);
+        BeerOrder small = createOrder(smallCustomer, 3, 1);
+        BeerOrder medium = createOrder(smallCustomer, 2, 5);
+
+        Assertions.assertEquals(List.of(small, medium, large),
+            StandardAllocationPolicy.SMALLEST_FIRST.prioritize(Lists.list(large, small, medium)));
+    }
+
+    @Test
+    void customerRoundRobin() {
+        BeerOrder big1 = createOrder(bigCustomer, 1, 50);
+        BeerOrder big2 = createOrder(bigCustomer, 2, 50);
+        BeerOrder big3 = createOrder(bigCustomer, 3, 50);
+        BeerOrder small1 = createOrder(smallCustomer, 4, 1);
+        BeerOrder small2 = createOrder(smallCustomer, 5, 1);
+
+        Assertions.assertEquals(List.of(big1, small1, big2, small2, big3),
+            StandardAllocationPolicy.CUSTOMER_ROUND_ROBIN.prioritize(Lists.list(big1, big2, big3, small1, small2)));
+    }
+
+    private BeerOrder createOrder(Customer customer, long createdDate, int orderQuantity) {
+        BeerOrder beerOrder = BeerOrder.builder()
+            .id(UUID.randomUUID())
+            .createdDate(new Timestamp(createdDate))
+            .customer(customer)
+            .build();
+        beerOrder.setBeerOrderLines(Set.of(BeerOrderLine.builder()
+            .beerOrder(beerOrder)
+            .beer(beer)
+            .orderQuantity(orderQuantity)
+            .quantityAllocated(0)
+            .build()));
+        return beerOrder;
+    }
+}
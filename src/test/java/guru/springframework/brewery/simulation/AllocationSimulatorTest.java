@@ -0,0 +1,54 @@
+package guru.springframework.brewery.simulation;
+
+import guru.springframework.brewery.web.model.BeerShortfallDto;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a small recorded timeline at startup of the simulation profile
+ *
+ * @author Krzysztof Kukla
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:simulation-test;DB_CLOSE_ON_EXIT=FALSE",
+    "sfg.brewery.simulation.timeline=classpath:simulation/timeline.csv",
+    "sfg.brewery.simulation.duration=1800000",
+    "sfg.brewery.simulation.sample-interval=600000"})
+@ActiveProfiles("simulation")
+class AllocationSimulatorTest {
+
+    @Autowired
+    private AllocationSimulator allocationSimulator;
+
+    @Test
+    void reportsTimeToReadyBacklogAndShortfall() {
+        SimulationReport report = allocationSimulator.getReport();
+
+        Assertions.assertEquals(1800000, report.getDuration());
+        Assertions.assertEquals(3, report.getPlacedOrders());
+        Assertions.assertEquals(2, report.getReadyOrders());
+        // READY when placed, and when the second receipt arrived 8 minutes after placing
+        Assertions.assertEquals(0, report.getLatencyP50());
+        Assertions.assertEquals(480000, report.getLatencyMax());
+
+        // samples at 0, 10 (before the receipt), 20 and 30 minutes and at the end
+        Assertions.assertEquals(List.of(0L, 1L, 0L, 1L, 1L), report.getBacklog().stream()
+            .map(SimulationReport.BacklogSample::getNewOrders)
+            .collect(Collectors.toList()));
+
+        Assertions.assertEquals(List.of(100000000001L, 100000000002L), report.getShortfalls().stream()
+            .map(BeerShortfallDto::getUpc)
+            .collect(Collectors.toList()));
+        Assertions.assertEquals(5, report.getShortfalls().get(0).getQuantityOpen());
+        Assertions.assertEquals(0, report.getShortfalls().get(0).getQuantityOnHand());
+        Assertions.assertEquals(5, report.getShortfalls().get(0).getShortfall());
+        Assertions.assertEquals(1, report.getShortfalls().get(0).getBlockedOrders());
+        Assertions.assertEquals(1, report.getShortfalls().get(1).getQuantityOpen());
+    }
+}
@@ -20,6 +20,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
@@ -30,6 +31,7 @@ import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -90,6 +92,20 @@ class BeerControllerTest {
         System.out.println(mvcResult.getResponse().getContentAsString());
     }
 
+    @Test
+    void getUnchangedBeerById() throws Exception {
+        UUID beerId = beerDto1.getId();
+        BDDMockito.given(beerService.findBeerVersion(beerId)).willReturn(Optional.of(3L));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/beer/{beerId}", beerId)
+            .header(HttpHeaders.IF_NONE_MATCH, "\"" + beerId + "-3\""))
+            .andExpect(status().isNotModified())
+            .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, "\"" + beerId + "-3\""))
+            .andExpect(content().string(""));
+
+        BDDMockito.then(beerService).should(BDDMockito.never()).findBeerById(ArgumentMatchers.any());
+    }
+
     @DisplayName(value = "List operations-> ")
     @Nested
     class TestListOperation {
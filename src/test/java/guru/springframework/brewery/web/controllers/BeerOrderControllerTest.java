@@ -1,9 +1,13 @@
 package guru.springframework.brewery.web.controllers;
 
+import guru.springframework.brewery.services.BeerOrderAdmissionService;
+import guru.springframework.brewery.services.BeerOrderNotAdmittedException;
 import guru.springframework.brewery.services.BeerOrderService;
+import guru.springframework.brewery.web.model.BeerOrderCursorPage;
 import guru.springframework.brewery.web.model.BeerOrderDto;
 import guru.springframework.brewery.web.model.BeerOrderPagedList;
 import guru.springframework.brewery.web.model.OrderStatusEnum;
+import guru.springframework.brewery.web.model.ReservationModeEnum;
 import org.assertj.core.util.Lists;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.AfterEach;
@@ -19,6 +23,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
@@ -28,6 +34,7 @@ import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -46,6 +53,9 @@ class BeerOrderControllerTest {
     @MockBean
     private BeerOrderService beerOrderService;
 
+    @MockBean
+    private BeerOrderAdmissionService beerOrderAdmissionService;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -71,6 +81,58 @@ class BeerOrderControllerTest {
         BDDMockito.reset(beerOrderService);
     }
 
+    @Test
+    void placeOrderNotAdmitted() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        BDDMockito.willThrow(new BeerOrderNotAdmittedException(HttpStatus.SERVICE_UNAVAILABLE, 30, "Too many orders"))
+            .given(beerOrderAdmissionService).admit(customerId);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/customers/{customerId}/orders", customerId)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"customerRef\":\"customerRef1\",\"beerOrderLines\":[]}"))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.RETRY_AFTER, "30"));
+
+        BDDMockito.then(beerOrderService).should(BDDMockito.never())
+            .placeOrder(any(UUID.class), any(BeerOrderDto.class), any(ReservationModeEnum.class), any());
+    }
+
+    @Test
+    void placedOrderIsAnsweredWhileNotAdmitted() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        BDDMockito.given(beerOrderService.findPlacedOrder(BDDMockito.eq(customerId), any(BeerOrderDto.class),
+            BDDMockito.eq("retry-1"))).willReturn(Optional.of(beerOrderDto1));
+        BDDMockito.willThrow(new BeerOrderNotAdmittedException(HttpStatus.SERVICE_UNAVAILABLE, 30, "Too many orders"))
+            .given(beerOrderAdmissionService).admit(customerId);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/customers/{customerId}/orders", customerId)
+            .header(BeerOrderController.IDEMPOTENCY_KEY_HEADER, "retry-1")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"customerRef\":\"customerRef1\",\"beerOrderLines\":[]}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.id", Matchers.is(beerOrderDto1.getId().toString())));
+
+        BDDMockito.then(beerOrderAdmissionService).should(BDDMockito.never()).admit(customerId);
+    }
+
+    @Test
+    void placeOrderWithIdempotencyKey() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        BDDMockito.given(beerOrderService.placeOrder(any(UUID.class), any(BeerOrderDto.class), any(ReservationModeEnum.class),
+            any(String.class))).willReturn(beerOrderDto1);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/customers/{customerId}/orders", customerId)
+            .header(BeerOrderController.IDEMPOTENCY_KEY_HEADER, "retry-1")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"customerRef\":\"customerRef1\",\"beerOrderLines\":[]}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.id", Matchers.is(beerOrderDto1.getId().toString())));
+
+        BDDMockito.then(beerOrderService).should()
+            .placeOrder(BDDMockito.eq(customerId), any(BeerOrderDto.class), BDDMockito.eq(ReservationModeEnum.NONE),
+                BDDMockito.eq("retry-1"));
+    }
+
     @DisplayName(value = "List order test-> ")
     @Nested
     class ListOrderTests {
@@ -136,6 +198,40 @@ class BeerOrderControllerTest {
 
     }
 
+    @Test
+    void listOrdersOfUnknownCustomer() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customers/{customerId}/orders", UUID.randomUUID()))
+            .andExpect(status().isOk())
+            .andExpect(MockMvcResultMatchers.header().doesNotExist(HttpHeaders.ETAG))
+            .andExpect(content().string(""));
+    }
+
+    @Test
+    void listOrdersWithCursor() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        BDDMockito.given(beerOrderService.listOrders(customerId, "", BeerOrderController.DEFAULT_PAGE_SIZE))
+            .willReturn(BeerOrderCursorPage.builder()
+                .content(Lists.list(beerOrderDto1))
+                .nextCursor("next")
+                .build());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customers/{customerId}/orders", customerId)
+            .param("cursor", ""))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.content", Matchers.hasSize(1)))
+            .andExpect(jsonPath("$.nextCursor", Matchers.is("next")))
+            .andExpect(jsonPath("$.totalElements").doesNotExist());
+
+        BDDMockito.then(beerOrderService).should(BDDMockito.never()).listOrders(any(UUID.class), any(PageRequest.class));
+    }
+
+    @Test
+    void intakeWithoutIntakeIsNotFound() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customers/{customerId}/orders/{orderId}/intake",
+            UUID.randomUUID(), UUID.randomUUID()))
+            .andExpect(status().isNotFound());
+    }
+
     @Test
     void getOrder() throws Exception {
         BDDMockito.given(beerOrderService.getOrderById(any(UUID.class), any(UUID.class)))
@@ -153,4 +249,18 @@ class BeerOrderControllerTest {
         System.out.println(mvcResult.getResponse().getContentAsString());
     }
 
+    @Test
+    void getOrderChangedSinceETag() throws Exception {
+        UUID customerId = UUID.randomUUID();
+        UUID orderId = beerOrderDto1.getId();
+        BDDMockito.given(beerOrderService.findOrderRevision(customerId, orderId)).willReturn(Optional.of(10L));
+        BDDMockito.given(beerOrderService.getOrderById(customerId, orderId)).willReturn(beerOrderDto1);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customers/{customerId}/orders/{orderId}", customerId, orderId)
+            .header(HttpHeaders.IF_NONE_MATCH, "\"" + orderId + "-9\""))
+            .andExpect(status().isOk())
+            .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, "\"" + orderId + "-10\""))
+            .andExpect(jsonPath("$.version", Matchers.is(10)));
+    }
+
 }
@@ -0,0 +1,57 @@
+package guru.springframework.brewery.web.controllers;
+
+import guru.springframework.brewery.services.BeerShortfallService;
+import guru.springframework.brewery.web.model.BeerShortfallDto;
+import org.assertj.core.util.Lists;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.mockito.BDDMockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * @author Krzysztof Kukla
+ */
+@WebMvcTest(controllers = BeerShortfallController.class)
+class BeerShortfallControllerTest {
+
+    @MockBean
+    private BeerShortfallService beerShortfallService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void listShortfalls() throws Exception {
+        BeerShortfallDto galaxyCat = BeerShortfallDto.builder()
+            .beerId(UUID.randomUUID())
+            .beerName("Galaxy Cat")
+            .upc(337010000002L)
+            .quantityOpen(120)
+            .quantityOnHand(20)
+            .shortfall(100)
+            .blockedOrders(7)
+            .build();
+
+        BDDMockito.given(beerShortfallService.listShortfalls()).willReturn(Lists.list(galaxyCat));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/beer/shortfall")
+            .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8))
+            .andExpect(jsonPath("$", Matchers.hasSize(1)))
+            .andExpect(jsonPath("$[0].beerId", Matchers.is(galaxyCat.getBeerId().toString())))
+            .andExpect(jsonPath("$[0].shortfall", Matchers.is(100)))
+            .andExpect(jsonPath("$[0].blockedOrders", Matchers.is(7)));
+    }
+}